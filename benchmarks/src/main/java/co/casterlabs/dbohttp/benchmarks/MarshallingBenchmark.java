@@ -0,0 +1,112 @@
+package co.casterlabs.dbohttp.benchmarks;
+
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.dbohttp.util.MarshallingContext;
+import co.casterlabs.dbohttp.util.MarshallingContext.BlobEncoding;
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonElement;
+import co.casterlabs.rakurai.json.element.JsonNumber;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import co.casterlabs.rakurai.json.element.JsonString;
+
+// MarshallingContext in both directions, for the values a parameter or a row
+// cell can hold.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarshallingBenchmark {
+
+    @Param({
+            "16",
+            "4096"
+    })
+    public int blobSize;
+
+    private MarshallingContext context;
+
+    private JsonElement jsonNumber;
+    private JsonElement jsonString;
+    private JsonElement jsonBlobArray;
+    private JsonElement jsonBlobTagged;
+
+    private byte[] blob;
+
+    @Setup
+    public void setup() {
+        this.context = new MarshallingContext();
+
+        this.blob = new byte[this.blobSize];
+        ThreadLocalRandom.current().nextBytes(this.blob);
+
+        this.jsonNumber = new JsonNumber(1234567890L);
+        this.jsonString = new JsonString("The quick brown fox jumps over the lazy dog.");
+
+        JsonArray array = new JsonArray();
+        for (byte b : this.blob) {
+            array.add(b);
+        }
+        this.jsonBlobArray = array;
+        this.jsonBlobTagged = new JsonObject().put(MarshallingContext.TAGGED_BLOB_KEY, Base64.getEncoder().encodeToString(this.blob));
+    }
+
+    @Benchmark
+    public Object jsonToJava_number() {
+        return this.context.jsonToJava(this.jsonNumber);
+    }
+
+    @Benchmark
+    public Object jsonToJava_string() {
+        return this.context.jsonToJava(this.jsonString);
+    }
+
+    @Benchmark
+    public Object jsonToJava_blobArray() {
+        return this.context.jsonToJava(this.jsonBlobArray);
+    }
+
+    @Benchmark
+    public Object jsonToJava_blobTagged() {
+        return this.context.jsonToJava(this.jsonBlobTagged);
+    }
+
+    @Benchmark
+    public JsonElement javaToJson_number() {
+        return this.context.javaToJson(1234567890L);
+    }
+
+    @Benchmark
+    public JsonElement javaToJson_string() {
+        return this.context.javaToJson("The quick brown fox jumps over the lazy dog.");
+    }
+
+    @Benchmark
+    public JsonElement javaToJson_blobArray() {
+        this.context.blobEncoding = BlobEncoding.ARRAY;
+        return this.context.javaToJson(this.blob);
+    }
+
+    @Benchmark
+    public JsonElement javaToJson_blobBase64() {
+        this.context.blobEncoding = BlobEncoding.BASE64;
+        return this.context.javaToJson(this.blob);
+    }
+
+}
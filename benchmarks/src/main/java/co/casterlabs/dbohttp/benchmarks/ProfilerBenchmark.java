@@ -0,0 +1,66 @@
+package co.casterlabs.dbohttp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.dbohttp.util.Profiler;
+import co.casterlabs.dbohttp.util.Profiler.Phase;
+import co.casterlabs.rakurai.json.element.JsonObject;
+
+// What the Profiler costs a request, every query goes through several phases.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProfilerBenchmark {
+    @Benchmark
+    public Profiler begin_single() {
+        Profiler profiler = new Profiler();
+        profiler.begin(Phase.STATEMENT_EXECUTION);
+        profiler.end();
+        return profiler;
+    }
+
+    // The phases of a typical SQLite query.
+    @Benchmark
+    public Profiler begin_query() {
+        Profiler profiler = new Profiler();
+        profiler.begin(Phase.STATEMENT_PREPARATION);
+        profiler.end();
+        profiler.begin(Phase.STATEMENT_EXECUTION);
+        profiler.end();
+        profiler.begin(Phase.RESULT_GATHERING);
+        profiler.end();
+        profiler.begin(Phase.RESULT_MARSHALLING);
+        profiler.end();
+        profiler.begin(Phase.STATEMENT_CLEANUP);
+        profiler.end();
+        profiler.begin(Phase.DATABASE_COMMIT);
+        profiler.end();
+        return profiler;
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        Profiler profiler = new Profiler();
+        profiler.log(Phase.STATEMENT_PREPARATION, .01);
+        profiler.log(Phase.STATEMENT_EXECUTION, .1);
+        profiler.log(Phase.RESULT_GATHERING, .01);
+        profiler.log(Phase.RESULT_MARSHALLING, .05);
+        profiler.log(Phase.STATEMENT_CLEANUP, .01);
+        profiler.log(Phase.DATABASE_COMMIT, .2);
+        return profiler.toJson();
+    }
+
+}
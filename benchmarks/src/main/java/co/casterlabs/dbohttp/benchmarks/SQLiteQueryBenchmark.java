@@ -0,0 +1,100 @@
+package co.casterlabs.dbohttp.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.dbohttp.config.DatabaseConfig;
+import co.casterlabs.dbohttp.database.QueryResult;
+import co.casterlabs.dbohttp.database.impl.SQLiteDatabase;
+import co.casterlabs.dbohttp.util.MarshallingContext;
+import co.casterlabs.rakurai.json.element.JsonArray;
+
+// The whole of SQLiteDatabase.query against a real file, so locking, statement
+// caching, marshalling and (for inserts) commits are all included.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SQLiteQueryBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({
+            "0",
+            "64"
+    })
+    public int statementCacheSize;
+
+    private Path file;
+    private SQLiteDatabase database;
+    private MarshallingContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.file = Files.createTempFile("dbohttp-bench", ".sqlite");
+
+        DatabaseConfig config = new DatabaseConfig();
+        config.connectionString = this.file.toString();
+        config.statementCacheSize = this.statementCacheSize;
+        config.coalesceReads = false; // Only one caller at a time here anyway.
+
+        this.database = new SQLiteDatabase(config);
+        this.context = new MarshallingContext();
+
+        this.database.query(this.context, "CREATE TABLE bench (id INTEGER PRIMARY KEY, name TEXT NOT NULL, value REAL, data BLOB)", JsonArray.EMPTY_ARRAY);
+        this.database.query(
+            this.context,
+            "WITH RECURSIVE n(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM n WHERE x < ?) INSERT INTO bench SELECT x, 'row #' || x, x / 3.0, randomblob(32) FROM n",
+            new JsonArray().add(ROWS)
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.database.close();
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public QueryResult pointRead() throws Exception {
+        long id = ThreadLocalRandom.current().nextLong(1, ROWS + 1);
+        return this.database.query(this.context, "SELECT * FROM bench WHERE id = ?", new JsonArray().add(id));
+    }
+
+    @Benchmark
+    public QueryResult scan1000() throws Exception {
+        long from = ThreadLocalRandom.current().nextLong(0, ROWS - 1000);
+        return this.database.query(this.context, "SELECT * FROM bench WHERE id > ? ORDER BY id LIMIT 1000", new JsonArray().add(from));
+    }
+
+    // A commit per insert, as a client would see it.
+    @Benchmark
+    public QueryResult insert() throws Exception {
+        return this.database.query(
+            this.context,
+            "INSERT INTO bench (name, value, data) VALUES (?, ?, randomblob(32))",
+            new JsonArray()
+                .add("inserted")
+                .add(ThreadLocalRandom.current().nextDouble())
+        );
+    }
+
+}
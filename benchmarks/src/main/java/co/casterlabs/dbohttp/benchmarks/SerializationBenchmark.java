@@ -0,0 +1,86 @@
+package co.casterlabs.dbohttp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.casterlabs.dbohttp.daemon.Daemon;
+import co.casterlabs.dbohttp.daemon.QueryRequestBody;
+import co.casterlabs.dbohttp.daemon.QueryRequestBody.ResultFormat;
+import co.casterlabs.dbohttp.database.QueryResult;
+import co.casterlabs.dbohttp.util.Profiler;
+import co.casterlabs.rakurai.json.element.JsonArray;
+
+// Turning a QueryResult into the body Daemon sends, in each of its formats.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({
+            "1",
+            "100",
+            "10000"
+    })
+    public int rows;
+
+    @Param({
+            "OBJECTS",
+            "COLUMNAR"
+    })
+    public ResultFormat format;
+
+    private QueryResult result;
+    private QueryRequestBody request;
+
+    @Setup
+    public void setup() {
+        List<Object[]> rows = new ArrayList<>(this.rows);
+        for (int i = 0; i < this.rows; i++) {
+            byte[] data = new byte[32];
+            ThreadLocalRandom.current().nextBytes(data);
+            rows.add(new Object[] {
+                    (long) i,
+                    "row #" + i,
+                    i / 3d,
+                    data
+            });
+        }
+
+        this.result = new QueryResult(
+            List.of("id", "name", "value", "data"),
+            List.of("INTEGER", "TEXT", "REAL", "BLOB"),
+            rows,
+            new Profiler()
+        );
+        this.request = new QueryRequestBody("SELECT * FROM bench", JsonArray.EMPTY_ARRAY);
+        this.request.format = this.format;
+    }
+
+    @Benchmark
+    public String json() {
+        return Daemon.jsonResponse(this.request, this.result, null, System.nanoTime());
+    }
+
+    @Benchmark
+    public byte[] cbor() {
+        return Daemon.cborResponse(this.request, this.result, null, System.nanoTime());
+    }
+
+}
@@ -0,0 +1,415 @@
+package co.casterlabs.dbohttp.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
+
+import co.casterlabs.dbohttp.DBOHTTP;
+import co.casterlabs.dbohttp.config.Config;
+import co.casterlabs.dbohttp.config.DatabaseConfig.DatabaseDriver;
+import co.casterlabs.dbohttp.daemon.Daemon;
+import co.casterlabs.dbohttp.util.CachingJWTVerifier;
+import co.casterlabs.rakurai.json.Rson;
+import co.casterlabs.rakurai.json.serialization.JsonParseException;
+import xyz.e3ndr.fastloggingframework.FastLoggingFramework;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+// Starts a Daemon on loopback against a throwaway SQLite file and drives it at a
+// series of fixed request rates. Requests go out on schedule whether or not the
+// earlier ones have finished (open-loop) and latency is measured from when each
+// was due, not when it was sent. That way a stalled server shows up as latency
+// instead of quietly lowering the rate we test at (coordinated omission).
+public class LoadTest {
+    private static final String READ_SQL = "SELECT * FROM bench WHERE id = ?";
+    private static final String WRITE_SQL = "UPDATE bench SET value = ? WHERE id = ?";
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("dbohttp-loadtest");
+        int exitCode = 0;
+
+        try {
+            Config config = start(options, dir);
+            URI uri = URI.create("http://127.0.0.1:" + config.port + "/");
+            String token = JWT.create()
+                .withSubject("dbohttp")
+                .withClaim("query", true)
+                .sign(Algorithm.HMAC256(config.jwtSecret));
+
+            HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+            seed(client, uri, token, options.rows);
+
+            if (options.warmupSeconds > 0) {
+                System.out.printf("Warming up at %d/s for %ds...\n", options.rates[0], options.warmupSeconds);
+                run(client, uri, token, options, options.rates[0], options.warmupSeconds);
+            }
+
+            List<Step> steps = new ArrayList<>();
+            System.out.printf(
+                "Read ratio %.2f, %d rows, %ds per step, %s.\n\n",
+                options.readRatio, options.rows, options.durationSeconds, options.config == null ? "default config" : options.config
+            );
+            System.out.println(Step.HEADER);
+            for (int rate : options.rates) {
+                Step step = run(client, uri, token, options, rate, options.durationSeconds);
+                steps.add(step);
+                System.out.println(step);
+            }
+
+            if (options.csv != null) {
+                try (PrintStream out = new PrintStream(Files.newOutputStream(options.csv))) {
+                    out.println(Step.CSV_HEADER);
+                    steps.forEach((s) -> out.println(s.toCsv()));
+                }
+                System.out.printf("\nWrote %s.\n", options.csv);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            exitCode = 1;
+        } finally {
+            stop();
+
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+            }
+        }
+
+        System.exit(exitCode); // RHS's threads aren't daemons.
+    }
+
+    // Mirrors Bootstrap, minus the config file watching.
+    private static Config start(Options options, Path dir) throws IOException, JsonParseException {
+        Config config = options.config == null ? new Config() : Rson.DEFAULT.fromJson(Files.readString(options.config), Config.class);
+        config.port = freePort();
+        config.heartbeatUrl = null;
+        config.database.driver = DatabaseDriver.SQLITE;
+        config.database.connectionString = dir.resolve("loadtest.sqlite").toString();
+        DBOHTTP.config = config;
+
+        Algorithm signingAlg = Algorithm.HMAC256(config.jwtSecret);
+        JWTVerifier infoVerifier = JWT.require(signingAlg)
+            .withClaim("info", true)
+            .withSubject("dbohttp")
+            .build();
+        JWTVerifier queryVerifier = JWT.require(signingAlg)
+            .withClaim("query", true)
+            .withSubject("dbohttp")
+            .build();
+
+        if (config.jwtCacheSize > 0) {
+            infoVerifier = new CachingJWTVerifier(infoVerifier, config.jwtCacheSize);
+            queryVerifier = new CachingJWTVerifier(queryVerifier, config.jwtCacheSize);
+        }
+
+        DBOHTTP.infoVerifier = infoVerifier;
+        DBOHTTP.queryVerifier = queryVerifier;
+
+        FastLoggingFramework.setDefaultLevel(LogLevel.WARNING);
+
+        DBOHTTP.database = config.database.create();
+        DBOHTTP.daemon = new Daemon(config.port, config.maxConcurrentRequests);
+        DBOHTTP.daemon.open();
+        DBOHTTP.daemon.server.getLogger().setCurrentLevel(LogLevel.WARNING);
+
+        return config;
+    }
+
+    private static void stop() {
+        try {
+            if (DBOHTTP.daemon != null) DBOHTTP.daemon.close();
+        } catch (Throwable ignored) {}
+        try {
+            if (DBOHTTP.database != null) DBOHTTP.database.close();
+        } catch (Throwable ignored) {}
+    }
+
+    private static void seed(HttpClient client, URI uri, String token, int rows) throws IOException, InterruptedException {
+        String[] statements = {
+                "{\"sql\":\"CREATE TABLE bench (id INTEGER PRIMARY KEY, name TEXT NOT NULL, value REAL)\",\"params\":[]}",
+                "{\"sql\":\"WITH RECURSIVE n(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM n WHERE x < ?) INSERT INTO bench SELECT x, 'row #' || x, x / 3.0 FROM n\",\"params\":[" + rows + "]}",
+        };
+
+        for (String body : statements) {
+            HttpResponse<String> response = client.send(request(uri, token, body), BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("Unable to seed the database: " + response.statusCode() + " " + response.body());
+            }
+        }
+    }
+
+    private static Step run(HttpClient client, URI uri, String token, Options options, int rate, int seconds) throws InterruptedException {
+        int total = (int) Math.min(Integer.MAX_VALUE, (long) rate * seconds);
+
+        // Each request writes only its own slot, the latch publishes them to us.
+        long[] latencies_ns = new long[total];
+        boolean[] succeeded = new boolean[total];
+        CountDownLatch done = new CountDownLatch(total);
+
+        Semaphore inFlight = new Semaphore(options.maxInFlight);
+        LongAdder errors = new LongAdder();
+        LongAdder overloaded = new LongAdder();
+        LongAdder dropped = new LongAdder();
+        LongAccumulator lastCompletion_ns = new LongAccumulator(Math::max, 0);
+        long maxSendLag_ns = 0;
+
+        long start_ns = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long due_ns = start_ns + (i * 1_000_000_000L) / rate;
+
+            long wait_ns;
+            while ((wait_ns = due_ns - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait_ns);
+            }
+            maxSendLag_ns = Math.max(maxSendLag_ns, -wait_ns);
+
+            // The server is so far behind that we'd only be measuring ourselves.
+            if (!inFlight.tryAcquire()) {
+                dropped.increment();
+                done.countDown();
+                continue;
+            }
+
+            int $i_ptr = i;
+            client.sendAsync(request(uri, token, body(options.readRatio, options.rows)), BodyHandlers.discarding())
+                .whenComplete((response, t) -> {
+                    long now_ns = System.nanoTime();
+                    latencies_ns[$i_ptr] = now_ns - due_ns;
+                    lastCompletion_ns.accumulate(now_ns);
+
+                    if (t == null && response.statusCode() == 200) {
+                        succeeded[$i_ptr] = true;
+                    } else if (t == null && response.statusCode() == 503) {
+                        overloaded.increment();
+                    } else {
+                        errors.increment();
+                    }
+
+                    inFlight.release();
+                    done.countDown();
+                });
+        }
+
+        if (!done.await(options.durationSeconds + 60, TimeUnit.SECONDS)) {
+            System.err.println("Gave up waiting on some requests, they're counted as errors.");
+        }
+
+        long[] ok = new long[total];
+        int okCount = 0;
+        for (int i = 0; i < total; i++) {
+            if (succeeded[i]) {
+                ok[okCount++] = latencies_ns[i];
+            }
+        }
+        ok = Arrays.copyOf(ok, okCount);
+        Arrays.sort(ok);
+
+        long elapsed_ns = Math.max(1, lastCompletion_ns.get() - start_ns);
+        long answered = okCount + overloaded.sum() + errors.sum() + dropped.sum();
+
+        return new Step(
+            rate,
+            okCount / (elapsed_ns / 1e9),
+            percentile(ok, .5),
+            percentile(ok, .99),
+            percentile(ok, .999),
+            okCount == 0 ? Double.NaN : ok[okCount - 1] / 1e6,
+            errors.sum() + (total - answered),
+            overloaded.sum(),
+            dropped.sum(),
+            maxSendLag_ns / 1e6
+        );
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static String body(double readRatio, int rows) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = random.nextLong(1, rows + 1);
+
+        if (random.nextDouble() < readRatio) {
+            return "{\"sql\":\"" + READ_SQL + "\",\"params\":[" + id + "]}";
+        } else {
+            return "{\"sql\":\"" + WRITE_SQL + "\",\"params\":[" + random.nextDouble() + "," + id + "]}";
+        }
+    }
+
+    private static HttpRequest request(URI uri, String token, String body) {
+        return HttpRequest.newBuilder(uri)
+            .header("Authorization", "Bearer " + token)
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(60))
+            .POST(BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Latencies are in milliseconds, from when the request was due.
+    private static record Step(int rate, double achieved, double p50, double p99, double p999, double max, long errors, long overloaded, long dropped, double sendLag) {
+        static final String HEADER = String.format(
+            "%8s %10s %9s %9s %9s %9s %7s %7s %8s %9s",
+            "rate/s", "achieved/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "503s", "dropped", "lag ms"
+        );
+        static final String CSV_HEADER = "rate,achieved,p50_ms,p99_ms,p999_ms,max_ms,errors,overloaded,dropped,send_lag_ms";
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%8d %10.1f %9.2f %9.2f %9.2f %9.2f %7d %7d %8d %9.2f",
+                this.rate, this.achieved, this.p50, this.p99, this.p999, this.max, this.errors, this.overloaded, this.dropped, this.sendLag
+            );
+        }
+
+        String toCsv() {
+            return String.format(
+                "%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%.3f",
+                this.rate, this.achieved, this.p50, this.p99, this.p999, this.max, this.errors, this.overloaded, this.dropped, this.sendLag
+            );
+        }
+
+    }
+
+    private static class Options {
+        static final String USAGE = String.join(
+            "\n",
+            "Usage: java -jar loadtest.jar [options]",
+            "  --rates 100,250,500      Requests per second for each step.",
+            "  --duration 30            Seconds per step.",
+            "  --warmup 10              Seconds at the first rate before measuring, 0 to skip.",
+            "  --read-ratio 0.9         Fraction of requests that are point reads, the rest are updates.",
+            "  --rows 10000             Rows to seed the table with.",
+            "  --max-in-flight 4096     Requests beyond this many outstanding are dropped and counted.",
+            "  --config config.json     Server config to test with, the port and database file are overridden.",
+            "  --csv results.csv        Also write the results as CSV."
+        );
+
+        int[] rates = {
+                100,
+                250,
+                500,
+                1000,
+                2000
+        };
+        int durationSeconds = 30;
+        int warmupSeconds = 10;
+        double readRatio = .9;
+        int rows = 10000;
+        int maxInFlight = 4096;
+        Path config = null;
+        Path csv = null;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("--help") || name.equals("-h")) {
+                    throw new IllegalArgumentException("dbohttp load test.");
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing a value for " + name);
+                }
+                String value = args[++i];
+
+                try {
+                    switch (name) {
+                        case "--rates":
+                            options.rates = Arrays.stream(value.split(","))
+                                .map(String::trim)
+                                .mapToInt(Integer::parseInt)
+                                .toArray();
+                            break;
+                        case "--duration":
+                            options.durationSeconds = Integer.parseInt(value);
+                            break;
+                        case "--warmup":
+                            options.warmupSeconds = Integer.parseInt(value);
+                            break;
+                        case "--read-ratio":
+                            options.readRatio = Double.parseDouble(value);
+                            break;
+                        case "--rows":
+                            options.rows = Integer.parseInt(value);
+                            break;
+                        case "--max-in-flight":
+                            options.maxInFlight = Integer.parseInt(value);
+                            break;
+                        case "--config":
+                            options.config = Path.of(value);
+                            break;
+                        case "--csv":
+                            options.csv = Path.of(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option: " + name);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number: " + name + " " + value);
+                }
+            }
+
+            if (options.rates.length == 0 || Arrays.stream(options.rates).anyMatch((r) -> r < 1)) {
+                throw new IllegalArgumentException("Every rate must be at least 1/s.");
+            }
+            if (options.durationSeconds < 1 || options.rows < 1 || options.maxInFlight < 1) {
+                throw new IllegalArgumentException("--duration, --rows and --max-in-flight must be at least 1.");
+            }
+            if (options.readRatio < 0 || options.readRatio > 1) {
+                throw new IllegalArgumentException("--read-ratio must be between 0 and 1.");
+            }
+
+            return options;
+        }
+
+    }
+
+}
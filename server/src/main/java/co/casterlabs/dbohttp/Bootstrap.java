@@ -6,10 +6,12 @@ import java.nio.file.Files;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
 
 import co.casterlabs.dbohttp.config.Config;
 import co.casterlabs.dbohttp.daemon.Daemon;
 import co.casterlabs.dbohttp.database.Database;
+import co.casterlabs.dbohttp.util.CachingJWTVerifier;
 import co.casterlabs.dbohttp.util.FileWatcher;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.serialization.JsonParseException;
@@ -74,18 +76,27 @@ public class Bootstrap {
 //        boolean isNew = DBOHTTP.config == null;
         DBOHTTP.config = config;
 
-        // Reconfigure the JWT verifiers.
+        // Reconfigure the JWT verifiers. Fresh caching verifiers also mean that
+        // nothing verified under the old secret survives.
         Algorithm signingAlg = Algorithm.HMAC256(config.jwtSecret);
 
-        DBOHTTP.infoVerifier = JWT.require(signingAlg)
+        JWTVerifier infoVerifier = JWT.require(signingAlg)
             .withClaim("info", true)
             .withSubject("dbohttp")
             .build();
-        DBOHTTP.queryVerifier = JWT.require(signingAlg)
+        JWTVerifier queryVerifier = JWT.require(signingAlg)
             .withClaim("query", true)
             .withSubject("dbohttp")
             .build();
 
+        if (config.jwtCacheSize > 0) {
+            infoVerifier = new CachingJWTVerifier(infoVerifier, config.jwtCacheSize);
+            queryVerifier = new CachingJWTVerifier(queryVerifier, config.jwtCacheSize);
+        }
+
+        DBOHTTP.infoVerifier = infoVerifier;
+        DBOHTTP.queryVerifier = queryVerifier;
+
         // Reconfigure heartbeats.
         if (DBOHTTP.heartbeat != null) {
             DBOHTTP.heartbeat.close();
@@ -99,7 +110,7 @@ public class Bootstrap {
 
         // Start the daemon if necessary.
         if (DBOHTTP.daemon == null) {
-            DBOHTTP.daemon = new Daemon(config.port);
+            DBOHTTP.daemon = new Daemon(config.port, config.maxConcurrentRequests);
             DBOHTTP.daemon.open();
         } else {
             if (DBOHTTP.config.port != config.port) {
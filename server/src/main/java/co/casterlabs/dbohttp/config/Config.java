@@ -11,6 +11,10 @@ public class Config {
     public boolean debug = false;
     public int port = 10243;
 
+    // Requests past this many at once are turned away as OVERLOADED (0 for no
+    // limit). Like the port, this needs a restart to change.
+    public int maxConcurrentRequests = 1024;
+
     public DatabaseConfig database = new DatabaseConfig();
 
     public @Nullable String heartbeatUrl = null;
@@ -22,4 +26,7 @@ public class Config {
      */
     public String jwtSecret = "CHANGEMEPLEASE";
 
+    // How many verified tokens to remember, 0 verifies every request from scratch.
+    public int jwtCacheSize = 10000;
+
 }
@@ -2,8 +2,11 @@ package co.casterlabs.dbohttp.config;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 
 import co.casterlabs.dbohttp.database.Database;
+import co.casterlabs.dbohttp.database.ReadConsistency;
 import co.casterlabs.dbohttp.database.impl.RQLiteDatabase;
 import co.casterlabs.dbohttp.database.impl.SQLiteDatabase;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
@@ -14,11 +17,63 @@ import lombok.ToString;
 @ToString
 @JsonClass(exposeAll = true)
 public class DatabaseConfig {
+    // How long a query may wait its turn before it's turned away as OVERLOADED,
+    // and how many may wait at once (0 for no limit).
     public long accessTimeoutSeconds = 30;
+    public int maxQueuedQueries = 256;
+
+    // How long a statement may run before it's stopped and rolled back, 0 for no
+    // limit. Requests may only ask for less via timeoutMillis.
+    public long queryTimeoutMillis = 30000;
+
+    // How large a single result may get whilst it's held in memory, 0 for no
+    // limit. Streamed results are written out as they're read so aren't limited.
+    public long maxResultRows = 0;
+    public long maxResultBytes = 256 * 1024 * 1024;
+
+    // The most rows a single page may ask for, larger pageSizes are clamped to it.
+    public int maxPageSize = 10000;
 
     public DatabaseDriver driver = DatabaseDriver.SQLITE;
     public String connectionString = "database.sqlite";
 
+    // SQLite only. When above 0 the database is switched to WAL mode and
+    // read-only statements are served in parallel by this many connections.
+    public int readConnections = 0;
+
+    // SQLite only. How many compiled statements to keep around per connection, 0
+    // disables the cache.
+    public int statementCacheSize = 64;
+
+    // SQLite only. When above 0, writes that arrive within this many milliseconds
+    // of each other (up to groupCommitMaxStatements) are committed together.
+    public long groupCommitWindowMillis = 0;
+    public int groupCommitMaxStatements = 64;
+
+    // SQLite only. How many read results to keep, 0 disables the cache. Entries
+    // are dropped when a write touches one of their tables or after the TTL.
+    public int resultCacheSize = 0;
+    public long resultCacheMaxBytes = 64 * 1024 * 1024;
+    public long resultCacheTtlSeconds = 60;
+
+    // SQLite only. Identical read statements that arrive whilst one is already
+    // running wait for it and share its result instead of running again.
+    public boolean coalesceReads = true;
+
+    // RQLite only. Connections to rqlite are kept alive and reused, these size
+    // the pool and bound how long we'll wait on it. accessTimeoutSeconds caps a
+    // whole call.
+    public int rqliteMaxIdleConnections = 32;
+    public long rqliteKeepAliveSeconds = 300;
+    public long rqliteConnectTimeoutSeconds = 5;
+    public int rqliteMaxConcurrentRequests = 256;
+
+    // RQLite only. Reads at NONE are spread across connectionString and these
+    // nodes (e.g "http://10.0.0.2:4001"), everything else goes to the leader.
+    // Requests may ask for a different level via readConsistency.
+    public ReadConsistency rqliteReadConsistency = ReadConsistency.WEAK;
+    public List<String> rqliteNodes = Collections.emptyList();
+
     public Database create() throws IOException {
         try {
             switch (this.driver) {
@@ -0,0 +1,78 @@
+package co.casterlabs.dbohttp.daemon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.casterlabs.dbohttp.daemon.QueryRequestBody.ResultFormat;
+import co.casterlabs.dbohttp.database.BatchResult.BatchMode;
+import co.casterlabs.dbohttp.database.BatchStatement;
+import co.casterlabs.dbohttp.util.MarshallingContext;
+import co.casterlabs.rakurai.json.TypeToken;
+import co.casterlabs.rakurai.json.annotating.JsonClass;
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.validation.JsonValidate;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+@NoArgsConstructor
+@JsonClass(exposeAll = true)
+class BatchRequestBody extends MarshallingContext {
+    // Shorthand, the body can also just be an array of statements.
+    static final TypeToken<List<Statement>> STATEMENTS_TT = new TypeToken<>() {
+    };
+
+    public @NonNull List<Statement> statements;
+    public BatchMode mode = BatchMode.ATOMIC;
+    public ResultFormat format = ResultFormat.OBJECTS;
+
+    public BatchRequestBody(@NonNull List<Statement> statements) {
+        this.statements = statements;
+        this.$validate();
+    }
+
+    @JsonValidate
+    private void $validate() {
+        if (this.statements == null || this.statements.isEmpty()) {
+            throw new IllegalArgumentException("You must specify at least one statement.");
+        }
+
+        for (Statement statement : this.statements) {
+            statement.$validate();
+        }
+
+        if (this.mode == null) {
+            this.mode = BatchMode.ATOMIC;
+        }
+
+        if (this.format == null) {
+            this.format = ResultFormat.OBJECTS;
+        }
+    }
+
+    public List<BatchStatement> toStatements() {
+        List<BatchStatement> list = new ArrayList<>(this.statements.size());
+        for (Statement statement : this.statements) {
+            list.add(new BatchStatement(statement.sql, statement.params));
+        }
+        return list;
+    }
+
+    @JsonClass(exposeAll = true)
+    public static class Statement {
+        public @NonNull String sql;
+        public @NonNull JsonArray params;
+
+        @JsonValidate
+        private void $validate() {
+            if (this.sql == null) {
+                throw new IllegalArgumentException("You must specify an SQL string.");
+            }
+
+            if (this.params == null) {
+                this.params = JsonArray.EMPTY_ARRAY;
+            }
+        }
+
+    }
+
+}
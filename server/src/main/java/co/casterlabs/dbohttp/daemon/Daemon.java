@@ -2,15 +2,29 @@ package co.casterlabs.dbohttp.daemon;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
 import org.jetbrains.annotations.Nullable;
 
 import com.auth0.jwt.exceptions.JWTVerificationException;
 
 import co.casterlabs.dbohttp.DBOHTTP;
+import co.casterlabs.dbohttp.daemon.QueryRequestBody.ResultFormat;
+import co.casterlabs.dbohttp.database.BatchResult;
+import co.casterlabs.dbohttp.database.BatchResult.StatementResult;
+import co.casterlabs.dbohttp.database.Page;
 import co.casterlabs.dbohttp.database.QueryException;
+import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
 import co.casterlabs.dbohttp.database.QueryResult;
+import co.casterlabs.dbohttp.database.Schema;
+import co.casterlabs.dbohttp.util.CborReader;
+import co.casterlabs.dbohttp.util.CborWriter;
+import co.casterlabs.dbohttp.util.MarshallingContext;
+import co.casterlabs.dbohttp.util.Profiler;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonElement;
@@ -33,28 +47,46 @@ import xyz.e3ndr.fastloggingframework.logging.LogLevel;
 public class Daemon implements Closeable, HttpListener {
     private static final HttpResponse NOT_IMPLEMENTED = HttpResponse.newFixedLengthResponse(StandardHttpStatus.NOT_IMPLEMENTED);
 
+    private static final String APPLICATION_CBOR = "application/cbor";
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     public final HttpServer server;
 
-    public Daemon(int port) {
+    // RHS calls us on its own threads and wants the response back on them, so
+    // requests run right there. This only bounds how many may at once.
+    private final @Nullable Semaphore permits;
+
+    public Daemon(int port, int maxConcurrentRequests) {
         HttpServerBuilder builder = new HttpServerBuilder()
             .withBehindProxy(true)
             .withPort(port);
 
+        this.permits = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests) : null;
         this.server = builder.build(this);
     }
 
-    private HttpResponse handleQuery(HttpSession session) {
+    private HttpResponse handleQuery(HttpSession session, RequestPermit permit) {
         QueryRequestBody request;
 
-        try {
-            String contentType = session.getHeader("Content-Type");
-            if (contentType == null) contentType = "text/plain";
+        String contentType = session.getHeader("Content-Type");
+        if (contentType == null) contentType = "text/plain";
+        contentType = contentType.toLowerCase().split(";")[0].trim();
 
-            switch (contentType.toLowerCase().split(";")[0]) {
+        // CBOR responses are sent when asked for, or when the request was CBOR and
+        // the client didn't say otherwise.
+        String accept = session.getHeader("Accept");
+        boolean cbor = accept == null ? contentType.equals(APPLICATION_CBOR) : accept.toLowerCase().contains(APPLICATION_CBOR);
+
+        try {
+            switch (contentType) {
                 case "application/json":
                     request = Rson.DEFAULT.fromJson(session.getRequestBody(), QueryRequestBody.class);
                     break;
 
+                case APPLICATION_CBOR:
+                    request = Rson.DEFAULT.fromJson(CborReader.read(session.getRequestBodyBytes()), QueryRequestBody.class);
+                    break;
+
                 case "text/plain": {
                     String sql = session.getRequestBody();
 
@@ -76,6 +108,170 @@ public class Daemon implements Closeable, HttpListener {
                 default:
                     throw new IllegalArgumentException();
             }
+        } catch (Throwable t) {
+            FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst parsing body.\n%s", t);
+            return errorResponse(
+                StandardHttpStatus.NOT_MODIFIED,
+                "BAD_REQUEST",
+                "Could not parse your request.",
+                cbor
+            )
+                .putHeader("X-Modified", "no");
+        }
+
+        // Clients that can't change the body (e.g text/plain) can ask for the
+        // columnar format with `Accept: application/json; format=columnar`.
+        if (accept != null && accept.toLowerCase().contains("format=columnar")) {
+            request.format = ResultFormat.COLUMNAR;
+        }
+
+        try {
+            // Streaming is always JSON, the row count isn't known up front.
+            if (request.stream) {
+                InputStream body = new StreamingQuery(request, permit).start();
+
+                return HttpResponse.newChunkedResponse(StandardHttpStatus.OK, body)
+                    .setMimeType("application/json; charset=utf-8")
+                    .putHeader("X-Modified", "yes");
+            }
+
+            long start_ns = System.nanoTime();
+            QueryResult result;
+            String nextCursor = null;
+
+            if (request.pageSize > 0) {
+                int pageSize = Math.min(request.pageSize, DBOHTTP.config.database.maxPageSize);
+                Page page = DBOHTTP.database.queryPage(request, request.sql, request.params, request.keyColumns, pageSize, request.cursor);
+                result = page.result();
+                nextCursor = page.nextCursor();
+            } else {
+                result = DBOHTTP.database.query(request, request.sql, request.params);
+            }
+
+            if (cbor) {
+                return newResponse(StandardHttpStatus.OK, cborResponse(request, result, nextCursor, start_ns))
+                    .setMimeType(APPLICATION_CBOR)
+                    .putHeader("X-Modified", "yes");
+            }
+
+            // Okay, we're done. Off to RHS you go.
+            return newResponse(StandardHttpStatus.OK, jsonResponse(request, result, nextCursor, start_ns))
+                .setMimeType("application/json; charset=utf-8")
+                .putHeader("X-Modified", "yes");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return errorResponse(
+                StandardHttpStatus.BAD_REQUEST,
+                "BAD_REQUEST",
+                e.getMessage(),
+                cbor
+            )
+                .putHeader("X-Modified", "no");
+        } catch (QueryException e) {
+            return queryErrorResponse(e, cbor)
+                .putHeader("X-Modified", "no");
+        } catch (Throwable t) {
+            return errorResponse(
+                StandardHttpStatus.INTERNAL_ERROR,
+                "INTERNAL_ERROR",
+                "An internal error occurred. Database may have been modified.",
+                cbor
+            )
+                .putHeader("X-Modified", "maybe");
+        }
+    }
+
+    // Public so that the benchmarks measure exactly what we send.
+    public static String jsonResponse(QueryRequestBody request, QueryResult result, @Nullable String nextCursor, long start_ns) {
+        JsonObject meta = new JsonObject()
+            .put("rowsReturned", result.rows().size())
+            .put("truncated", result.truncated());
+
+        if (request.pageSize > 0) {
+            if (nextCursor == null) {
+                meta.putNull("nextCursor");
+            } else {
+                meta.put("nextCursor", nextCursor);
+            }
+        }
+
+        JsonObject response = new JsonObject()
+            .put("results", request.format == ResultFormat.COLUMNAR ? result.columnarJson(request) : result.rowsJson(request))
+            .put("meta", meta)
+            .putNull("error");
+
+        // One last profile...
+        double took_ms = (System.nanoTime() - start_ns) / 1000000d;
+        meta.put("took", took_ms);
+        meta.put("profile", profileJson(request, result.profiler(), took_ms));
+
+        return response.toString(false);
+    }
+
+    // Same shape as the JSON response, but written straight from the row values.
+    // BLOBs are native byte strings so blobEncoding doesn't apply.
+    public static byte[] cborResponse(QueryRequestBody request, QueryResult result, @Nullable String nextCursor, long start_ns) {
+        CborWriter writer = new CborWriter();
+        writer.writeMapHeader(3);
+
+        writer.writeString("results");
+        if (request.format == ResultFormat.COLUMNAR) {
+            writer.writeMapHeader(3);
+            writer.writeString("columns").writeArrayHeader(result.columns().size());
+            result.columns().forEach(writer::writeString);
+            writer.writeString("types").writeArrayHeader(result.types().size());
+            result.types().forEach(writer::writeValue);
+            writer.writeString("rows").writeArrayHeader(result.rows().size());
+            for (Object[] row : result.rows()) {
+                writer.writeArrayHeader(row.length);
+                for (Object value : row) {
+                    writer.writeValue(value);
+                }
+            }
+        } else {
+            writer.writeArrayHeader(result.rows().size());
+            for (Object[] row : result.rows()) {
+                writer.writeMapHeader(row.length);
+                for (int i = 0; i < row.length; i++) {
+                    writer.writeString(result.columns().get(i));
+                    writer.writeValue(row[i]);
+                }
+            }
+        }
+
+        // One last profile...
+        double took_ms = (System.nanoTime() - start_ns) / 1000000d;
+
+        boolean paged = request.pageSize > 0;
+        writer.writeString("meta").writeMapHeader(paged ? 5 : 4);
+        writer.writeString("profile").writeJson(profileJson(request, result.profiler(), took_ms));
+        writer.writeString("rowsReturned").writeLong(result.rows().size());
+        writer.writeString("truncated").writeBoolean(result.truncated());
+        writer.writeString("took").writeDouble(took_ms);
+        if (paged) {
+            writer.writeString("nextCursor");
+            if (nextCursor == null) {
+                writer.writeNull();
+            } else {
+                writer.writeString(nextCursor);
+            }
+        }
+
+        writer.writeString("error").writeNull();
+
+        return writer.toByteArray();
+    }
+
+    private HttpResponse handleBatch(HttpSession session) {
+        BatchRequestBody request;
+
+        try {
+            String body = session.getRequestBody();
+
+            if (body.trim().startsWith("[")) {
+                request = new BatchRequestBody(Rson.DEFAULT.fromJson(body, BatchRequestBody.STATEMENTS_TT));
+            } else {
+                request = Rson.DEFAULT.fromJson(body, BatchRequestBody.class);
+            }
         } catch (Throwable t) {
             FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst parsing body.\n%s", t);
             return errorResponse(
@@ -86,29 +282,56 @@ public class Daemon implements Closeable, HttpListener {
                 .putHeader("X-Modified", "no");
         }
 
+        String accept = session.getHeader("Accept");
+        if (accept != null && accept.toLowerCase().contains("format=columnar")) {
+            request.format = ResultFormat.COLUMNAR;
+        }
+
         try {
             long start_ns = System.nanoTime();
-            QueryResult result = DBOHTTP.database.query(request, request.sql, request.params);
+            BatchResult batch = DBOHTTP.database.batch(request, request.toStatements(), request.mode);
+
+            // Each entry mirrors the response of a single query.
+            JsonArray results = new JsonArray();
+            for (StatementResult statement : batch.results()) {
+                if (statement.error() != null) {
+                    results.add(
+                        new JsonObject()
+                            .putNull("results")
+                            .putNull("meta")
+                            .put("error", errorJson(statement.error()))
+                    );
+                    continue;
+                }
+
+                QueryResult result = statement.result();
+                results.add(
+                    new JsonObject()
+                        .put("results", request.format == ResultFormat.COLUMNAR ? result.columnarJson(request) : result.rowsJson(request))
+                        .put(
+                            "meta",
+                            new JsonObject()
+                                .put("profile", request.profile ? result.profiler().toJson() : JsonNull.INSTANCE)
+                                .put("rowsReturned", result.rows().size())
+                                .put("truncated", result.truncated())
+                        )
+                        .putNull("error")
+                );
+            }
 
-            // Build the response object .
-            JsonObject profile = result.profiler().toJson();
-            JsonObject meta = new JsonObject()
-                .put("profile", profile)
-//                .put("took", took_ms)
-                .put("rowsReturned", result.rows().size());
+            JsonObject meta = new JsonObject();
 
             JsonObject response = new JsonObject()
-                .put("results", result.rowsJson())
+                .put("results", results)
                 .put("meta", meta)
                 .putNull("error");
 
             // One last profile...
             double took_ms = (System.nanoTime() - start_ns) / 1000000d;
             meta.put("took", took_ms);
-            profile.put("Miscellaneous", took_ms - result.profiler().timeSpent_ms);
+            meta.put("profile", profileJson(request, batch.profiler(), took_ms));
 
-            // Okay, we're done. Off to RHS you go.
-            return HttpResponse.newFixedLengthResponse(StandardHttpStatus.OK, response.toString(false))
+            return newResponse(StandardHttpStatus.OK, response.toString(false))
                 .setMimeType("application/json; charset=utf-8")
                 .putHeader("X-Modified", "yes");
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
@@ -119,11 +342,7 @@ public class Daemon implements Closeable, HttpListener {
             )
                 .putHeader("X-Modified", "no");
         } catch (QueryException e) {
-            return errorResponse(
-                StandardHttpStatus.INTERNAL_ERROR,
-                e.code.name(),
-                e.getMessage()
-            )
+            return queryErrorResponse(e, false)
                 .putHeader("X-Modified", "no");
         } catch (Throwable t) {
             return errorResponse(
@@ -135,9 +354,17 @@ public class Daemon implements Closeable, HttpListener {
         }
     }
 
+    private HttpResponse handleMetrics(HttpSession session) {
+        return newResponse(StandardHttpStatus.OK, Metrics.scrape())
+            .setMimeType(Metrics.CONTENT_TYPE)
+            .putHeader("X-Modified", "no");
+    }
+
     private HttpResponse handleInfo(HttpSession session) {
         try {
-            return HttpResponse.newFixedLengthResponse(
+            Schema schema = DBOHTTP.database.schema();
+
+            return newResponse(
                 StandardHttpStatus.OK,
                 new JsonObject()
                     .put(
@@ -145,7 +372,8 @@ public class Daemon implements Closeable, HttpListener {
                         new JsonObject()
                             .put("driver", DBOHTTP.config.database.driver.name())
                             .put("report", DBOHTTP.database.generateReport())
-                            .put("tables", Rson.DEFAULT.toJson(DBOHTTP.database.listTables()))
+                            .put("tables", Rson.DEFAULT.toJson(schema.tableNames()))
+                            .put("schema", schema.toJson())
                     )
                     .putNull("error")
                     .toString(false)
@@ -188,12 +416,21 @@ public class Daemon implements Closeable, HttpListener {
             switch (session.getMethod()) {
                 case GET:
                     DBOHTTP.infoVerifier.verify(token); // Check it.
-                    response = this.handleInfo(session);
+                    if ("/metrics".equals(session.getUri())) {
+                        response = this.handleMetrics(session);
+                    } else {
+                        response = this.limited((permit) -> this.handleInfo(session));
+                    }
                     break;
 
                 case POST:
                     DBOHTTP.queryVerifier.verify(token); // Check it.
-                    response = this.handleQuery(session);
+                    countBytesIn(session);
+                    if ("/batch".equals(session.getUri())) {
+                        response = this.limited((permit) -> this.handleBatch(session));
+                    } else {
+                        response = this.limited((permit) -> this.handleQuery(session, permit));
+                    }
                     break;
 
                 default:
@@ -210,6 +447,24 @@ public class Daemon implements Closeable, HttpListener {
         }
     }
 
+    // Anything past maxConcurrentRequests is turned away rather than queued, RHS
+    // would otherwise hold a thread for each of them.
+    private HttpResponse limited(Function<RequestPermit, HttpResponse> handler) {
+        RequestPermit permit = RequestPermit.tryAcquire(this.permits);
+        if (permit == null) {
+            return queryErrorResponse(new QueryException(QueryErrorCode.OVERLOADED, "Too many requests are in flight."), false)
+                .putHeader("X-Modified", "no");
+        }
+
+        try {
+            return handler.apply(permit);
+        } finally {
+            if (!permit.isHandedOff()) {
+                permit.release();
+            }
+        }
+    }
+
     @Override
     public @Nullable WebsocketListener serveWebsocketSession(WebsocketSession session) {
         throw new DropConnectionException();
@@ -224,21 +479,102 @@ public class Daemon implements Closeable, HttpListener {
         this.server.stop();
     }
 
+    private static void countBytesIn(HttpSession session) {
+        String contentLength = session.getHeader("Content-Length");
+        if (contentLength == null) return;
+
+        try {
+            Metrics.bytesIn.add(Long.parseLong(contentLength.trim()));
+        } catch (NumberFormatException ignored) {}
+    }
+
+    // Requests can opt out with "profile": false, the phases are still timed for
+    // the metrics but nothing gets built for the response.
+    static JsonElement profileJson(MarshallingContext context, Profiler profiler, double took_ms) {
+        if (!context.profile) {
+            return JsonNull.INSTANCE;
+        }
+
+        return profiler.toJson()
+            .put("Miscellaneous", took_ms - profiler.timeSpent_ms);
+    }
+
+    static JsonObject errorJson(Throwable t) {
+        String code;
+        String message;
+
+        if (t instanceof QueryException) {
+            code = ((QueryException) t).code.name();
+            message = t.getMessage();
+        } else if (t instanceof UnsupportedOperationException || t instanceof IllegalArgumentException) {
+            code = "BAD_REQUEST";
+            message = t.getMessage();
+        } else {
+            code = "INTERNAL_ERROR";
+            message = "An internal error occurred. Database may have been modified.";
+        }
+
+        Metrics.countError(code);
+
+        return new JsonObject()
+            .put("code", code)
+            .put("message", message);
+    }
+
+    private static HttpResponse queryErrorResponse(QueryException e, boolean cbor) {
+        if (e.code == QueryErrorCode.OVERLOADED) {
+            // Nothing ran, so the client is free to try again shortly.
+            return errorResponse(StandardHttpStatus.SERVICE_UNAVAILABLE, e.code.name(), e.getMessage(), cbor)
+                .putHeader("Retry-After", RETRY_AFTER_SECONDS);
+        }
+
+        return errorResponse(StandardHttpStatus.INTERNAL_ERROR, e.code.name(), e.getMessage(), cbor);
+    }
+
+    private static HttpResponse errorResponse(HttpStatus status, String code, String message, boolean cbor) {
+        Metrics.countError(code);
+
+        if (!cbor) {
+            return newResponse(
+                status,
+                new JsonObject()
+                    .putNull("results")
+                    .putNull("meta")
+                    .put(
+                        "error",
+                        new JsonObject()
+                            .put("code", code)
+                            .put("message", message)
+                    )
+                    .toString(false)
+            )
+                .setMimeType("application/json; charset=utf-8");
+        }
+
+        byte[] body = new CborWriter(64)
+            .writeMapHeader(3)
+            .writeString("results").writeNull()
+            .writeString("meta").writeNull()
+            .writeString("error").writeMapHeader(2)
+            .writeString("code").writeString(code)
+            .writeString("message").writeValue(message)
+            .toByteArray();
+
+        return newResponse(status, body)
+            .setMimeType(APPLICATION_CBOR);
+    }
+
     private static HttpResponse errorResponse(HttpStatus status, String code, String message) {
-        return HttpResponse.newFixedLengthResponse(
-            status,
-            new JsonObject()
-                .putNull("results")
-                .putNull("meta")
-                .put(
-                    "error",
-                    new JsonObject()
-                        .put("code", code)
-                        .put("message", message)
-                )
-                .toString(false)
-        )
-            .setMimeType("application/json; charset=utf-8");
+        return errorResponse(status, code, message, false);
+    }
+
+    private static HttpResponse newResponse(HttpStatus status, String body) {
+        return newResponse(status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HttpResponse newResponse(HttpStatus status, byte[] body) {
+        Metrics.bytesOut.add(body.length);
+        return HttpResponse.newFixedLengthResponse(status, body);
     }
 
 }
@@ -0,0 +1,128 @@
+package co.casterlabs.dbohttp.daemon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.casterlabs.dbohttp.DBOHTTP;
+import co.casterlabs.dbohttp.database.Database;
+import co.casterlabs.dbohttp.util.LatencyHistogram;
+import co.casterlabs.dbohttp.util.Profiler.Phase;
+
+// Renders the Prometheus text exposition format (0.0.4). Everything here reads
+// counters that are already being kept, nothing touches the database itself.
+class Metrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    static final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private static final double[] QUANTILES = {
+            .5,
+            .9,
+            .99
+    };
+
+    static void countError(String code) {
+        errors.computeIfAbsent(code, (c) -> new LongAdder()).increment();
+    }
+
+    static String scrape() {
+        StringBuilder sb = new StringBuilder();
+        Database database = DBOHTTP.database;
+
+        header(sb, "dbohttp_queries_total", "counter", "Statements ran since startup.");
+        sample(sb, "dbohttp_queries_total", null, database.queryTimes.lifetimeCount());
+
+        header(sb, "dbohttp_query_duration_seconds", "summary", "Time spent in the database per request, quantiles over the last " + LatencyHistogram.WINDOW_S + "s.");
+        summary(sb, "dbohttp_query_duration_seconds", null, database.queryTimes);
+
+        header(sb, "dbohttp_failed_queries_total", "counter", "Requests that failed inside of the database.");
+        sample(sb, "dbohttp_failed_queries_total", null, database.failedQueryTimes.lifetimeCount());
+
+        header(sb, "dbohttp_phase_duration_seconds", "summary", "Time spent per profiler phase, quantiles over the last " + LatencyHistogram.WINDOW_S + "s.");
+        for (Phase phase : Phase.VALUES) {
+            LatencyHistogram histogram = database.phaseTimes[phase.ordinal()];
+            if (histogram.lifetimeCount() > 0) {
+                summary(sb, "dbohttp_phase_duration_seconds", "phase=\"" + escape(phase.label) + "\"", histogram);
+            }
+        }
+
+        header(sb, "dbohttp_queued", "gauge", "Callers currently waiting on the database.");
+        sample(sb, "dbohttp_queued", null, database.queueDepth());
+
+        header(sb, "dbohttp_queue_wait_seconds", "summary", "Time spent waiting for the database before running, quantiles over the last " + LatencyHistogram.WINDOW_S + "s.");
+        summary(sb, "dbohttp_queue_wait_seconds", null, database.queueWaitTimes);
+
+        header(sb, "dbohttp_errors_total", "counter", "Error responses by code.");
+        for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+            sample(sb, "dbohttp_errors_total", "code=\"" + escape(entry.getKey()) + "\"", entry.getValue().sum());
+        }
+
+        header(sb, "dbohttp_received_bytes_total", "counter", "Request body bytes received.");
+        sample(sb, "dbohttp_received_bytes_total", null, bytesIn.sum());
+
+        header(sb, "dbohttp_sent_bytes_total", "counter", "Response body bytes sent.");
+        sample(sb, "dbohttp_sent_bytes_total", null, bytesOut.sum());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+
+        header(sb, "jvm_memory_used_bytes", "gauge", "Used JVM memory.");
+        sample(sb, "jvm_memory_used_bytes", "area=\"heap\"", heap.getUsed());
+        sample(sb, "jvm_memory_used_bytes", "area=\"nonheap\"", nonHeap.getUsed());
+
+        header(sb, "jvm_memory_committed_bytes", "gauge", "Committed JVM memory.");
+        sample(sb, "jvm_memory_committed_bytes", "area=\"heap\"", heap.getCommitted());
+        sample(sb, "jvm_memory_committed_bytes", "area=\"nonheap\"", nonHeap.getCommitted());
+
+        header(sb, "jvm_memory_max_bytes", "gauge", "Maximum JVM memory, -1 if undefined.");
+        sample(sb, "jvm_memory_max_bytes", "area=\"heap\"", heap.getMax());
+        sample(sb, "jvm_memory_max_bytes", "area=\"nonheap\"", nonHeap.getMax());
+
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        for (double quantile : QUANTILES) {
+            String quantileLabel = "quantile=\"" + quantile + "\"";
+            sample(sb, name, labels == null ? quantileLabel : labels + "," + quantileLabel, snapshot.percentile_ms(quantile) / 1000d);
+        }
+
+        sample(sb, name + "_sum", labels, histogram.lifetimeSum_ms() / 1000d);
+        sample(sb, name + "_count", labels, histogram.lifetimeCount());
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ');
+
+        if (value == (long) value) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n");
+    }
+
+}
@@ -1,20 +1,38 @@
 package co.casterlabs.dbohttp.daemon;
 
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.dbohttp.util.MarshallingContext;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.validation.JsonValidate;
-import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 
 @NoArgsConstructor
-@AllArgsConstructor
 @JsonClass(exposeAll = true)
-class QueryRequestBody extends MarshallingContext {
+public class QueryRequestBody extends MarshallingContext {
     public @NonNull String sql;
     public @NonNull JsonArray params;
 
+    // Write rows out as they're read instead of buffering the whole result.
+    public boolean stream = false;
+
+    public ResultFormat format = ResultFormat.OBJECTS;
+
+    // When above 0 the results are paged, ordered by keyColumns. Pass the
+    // nextCursor from the response's meta to get the page after it.
+    public int pageSize = 0;
+    public @Nullable List<String> keyColumns;
+    public @Nullable String cursor;
+
+    public QueryRequestBody(@NonNull String sql, @NonNull JsonArray params) {
+        this.sql = sql;
+        this.params = params;
+    }
+
     @JsonValidate
     private void $validate() {
         if (this.sql == null) {
@@ -24,6 +42,33 @@ class QueryRequestBody extends MarshallingContext {
         if (this.params == null) {
             this.params = JsonArray.EMPTY_ARRAY;
         }
+
+        if (this.format == null) {
+            this.format = ResultFormat.OBJECTS;
+        }
+
+        if (this.pageSize < 0) {
+            throw new IllegalArgumentException("pageSize can't be negative.");
+        }
+
+        if (this.pageSize > 0) {
+            if (this.keyColumns == null || this.keyColumns.isEmpty()) {
+                throw new IllegalArgumentException("You must specify keyColumns to page on.");
+            }
+            if (this.stream) {
+                throw new IllegalArgumentException("Paged results can't also be streamed.");
+            }
+        } else if (this.cursor != null) {
+            throw new IllegalArgumentException("A cursor needs the pageSize it was read with.");
+        }
+    }
+
+    public static enum ResultFormat {
+        // [{"column": value, ...}, ...]
+        OBJECTS,
+
+        // {"columns": [...], "types": [...], "rows": [[value, ...], ...]}
+        COLUMNAR,
     }
 
 }
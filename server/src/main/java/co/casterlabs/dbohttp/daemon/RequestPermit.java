@@ -0,0 +1,40 @@
+package co.casterlabs.dbohttp.daemon;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jetbrains.annotations.Nullable;
+
+// A request's slot of maxConcurrentRequests, given back exactly once. A streamed
+// query takes it over from the handler and gives it back once it's finished.
+class RequestPermit {
+    private final @Nullable Semaphore permits;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private volatile boolean handedOff = false;
+
+    private RequestPermit(@Nullable Semaphore permits) {
+        this.permits = permits;
+    }
+
+    // Null if there's no slot left.
+    static @Nullable RequestPermit tryAcquire(@Nullable Semaphore permits) {
+        if (permits != null && !permits.tryAcquire()) return null;
+        return new RequestPermit(permits);
+    }
+
+    void handOff() {
+        this.handedOff = true;
+    }
+
+    boolean isHandedOff() {
+        return this.handedOff;
+    }
+
+    void release() {
+        if (this.permits != null && this.released.compareAndSet(false, true)) {
+            this.permits.release();
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package co.casterlabs.dbohttp.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import co.casterlabs.dbohttp.DBOHTTP;
+import co.casterlabs.dbohttp.daemon.QueryRequestBody.ResultFormat;
+import co.casterlabs.dbohttp.database.QueryException;
+import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
+import co.casterlabs.dbohttp.database.QueryResult;
+import co.casterlabs.dbohttp.database.RowSink;
+import co.casterlabs.dbohttp.util.ChunkedPipe;
+import co.casterlabs.rakurai.json.Rson;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+// Runs a query on its own thread, writing each row into the response body as
+// the database hands it over. Since we can't know the size up front the meta
+// block comes after the results.
+class StreamingQuery implements RowSink, Runnable {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_CHUNKS = 8;
+
+    private final ChunkedPipe pipe = new ChunkedPipe(CHUNK_SIZE, MAX_CHUNKS);
+    private final Writer writer = new OutputStreamWriter(this.pipe.out, StandardCharsets.UTF_8);
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    private final QueryRequestBody request;
+    private final RequestPermit permit;
+    private final long start_ns = System.nanoTime();
+
+    private boolean started = false;
+    private List<String> columns;
+    private long rowsReturned = 0;
+
+    StreamingQuery(@NonNull QueryRequestBody request, @NonNull RequestPermit permit) {
+        this.request = request;
+        this.permit = permit;
+    }
+
+    // Blocks until the response body is ready to go. Anything thrown before that
+    // point is rethrown here so that it can be reported with a proper status.
+    InputStream start() throws Throwable {
+        // A platform thread, SQLite runs natively and would hold a virtual thread's
+        // carrier (and so every other virtual thread on it) until it's done.
+        Thread.ofPlatform()
+            .name("Streaming Query")
+            .daemon(true)
+            .start(this);
+        this.permit.handOff(); // Ours from here on, run() gives it back.
+
+        try {
+            this.ready.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+
+        return this.pipe.in;
+    }
+
+    private void begin(List<String> columns, List<String> types) throws IOException {
+        if (this.started) return;
+        this.started = true;
+        this.columns = columns;
+
+        if (this.request.format == ResultFormat.COLUMNAR) {
+            this.writer.write("{\"results\":{\"columns\":");
+            this.writer.write(Rson.DEFAULT.toJson(columns).toString(false));
+            this.writer.write(",\"types\":");
+            this.writer.write(Rson.DEFAULT.toJson(types).toString(false));
+            this.writer.write(",\"rows\":[");
+        } else {
+            this.writer.write("{\"results\":[");
+        }
+
+        this.ready.complete(null);
+    }
+
+    private void end() throws IOException {
+        if (this.request.format == ResultFormat.COLUMNAR) {
+            this.writer.write("]}");
+        } else {
+            this.writer.write(']');
+        }
+    }
+
+    // A client that stops reading would otherwise keep the database to itself.
+    @Override
+    public void deadline(long deadline_ns) {
+        this.pipe.setWriteDeadline(deadline_ns);
+    }
+
+    @Override
+    public void columns(@NonNull List<String> columns, @NonNull List<String> types) throws IOException, QueryException {
+        try {
+            this.begin(columns, types);
+        } catch (InterruptedIOException e) {
+            throw stalled();
+        }
+    }
+
+    @Override
+    public void row(@NonNull Object[] row) throws IOException, QueryException {
+        try {
+            if (this.rowsReturned > 0) {
+                this.writer.write(',');
+            }
+
+            if (this.request.format == ResultFormat.COLUMNAR) {
+                this.writer.write(QueryResult.rowArrayJson(this.request, row).toString(false));
+            } else {
+                this.writer.write(QueryResult.rowJson(this.request, this.columns, row).toString(false));
+            }
+        } catch (InterruptedIOException e) {
+            throw stalled();
+        }
+
+        this.rowsReturned++;
+    }
+
+    private static QueryException stalled() {
+        return new QueryException(QueryErrorCode.TIMED_OUT, "The client stopped reading the results before the query's timeout, so it was stopped.");
+    }
+
+    @Override
+    public void run() {
+        try {
+            QueryResult result = DBOHTTP.database.query(this.request, this.request.sql, this.request.params, this);
+            this.begin(Collections.emptyList(), Collections.emptyList()); // Statements without a result never call columns().
+
+            double took_ms = (System.nanoTime() - this.start_ns) / 1000000d;
+
+            JsonObject meta = new JsonObject()
+                .put("profile", Daemon.profileJson(this.request, result.profiler(), took_ms))
+                .put("rowsReturned", this.rowsReturned)
+                .put("took", took_ms);
+
+            this.end();
+            this.writer.write(",\"meta\":");
+            this.writer.write(meta.toString(false));
+            this.writer.write(",\"error\":null}");
+        } catch (Throwable t) {
+            if (!this.started) {
+                this.ready.completeExceptionally(t);
+                return;
+            }
+
+            if (t instanceof IOException) {
+                FastLogger.logStatic(LogLevel.DEBUG, "Client went away whilst streaming.\n%s", t);
+                return;
+            }
+
+            // The status line is long gone, so the best we can do is report it in-band.
+            try {
+                this.end();
+                this.writer.write(",\"meta\":null,\"error\":");
+                this.writer.write(Daemon.errorJson(t).toString(false));
+                this.writer.write('}');
+            } catch (IOException ignored) {}
+        } finally {
+            try {
+                this.writer.close();
+            } catch (IOException ignored) {}
+
+            Metrics.bytesOut.add(this.pipe.bytesWritten());
+            this.permit.release();
+        }
+    }
+
+}
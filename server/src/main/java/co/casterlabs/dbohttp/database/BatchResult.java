@@ -0,0 +1,27 @@
+package co.casterlabs.dbohttp.database;
+
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.dbohttp.util.Profiler;
+
+// One entry per statement, in the order they were given. The profiler covers
+// the batch as a whole, each statement's result carries its own.
+public record BatchResult(List<StatementResult> results, Profiler profiler) {
+
+    // Exactly one of these will be set. Errors can only appear in INDEPENDENT mode.
+    public static record StatementResult(@Nullable QueryResult result, @Nullable Throwable error) {
+    }
+
+    public static enum BatchMode {
+        // All statements run in one transaction, the first failure rolls back everything.
+        ATOMIC,
+
+        // Each statement gets its own savepoint, a failure only rolls back that statement.
+        // On rqlite there are no savepoints: every statement is committed on its own as
+        // it runs, so the batch as a whole isn't one transaction.
+        INDEPENDENT,
+    }
+
+}
@@ -0,0 +1,8 @@
+package co.casterlabs.dbohttp.database;
+
+import co.casterlabs.rakurai.json.element.JsonArray;
+import lombok.NonNull;
+
+public record BatchStatement(@NonNull String sql, @NonNull JsonArray params) {
+
+}
@@ -1,94 +1,326 @@
 package co.casterlabs.dbohttp.database;
 
 import java.io.Closeable;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.dbohttp.database.BatchResult.BatchMode;
+import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
+import co.casterlabs.dbohttp.util.LatencyHistogram;
 import co.casterlabs.dbohttp.util.MarshallingContext;
+import co.casterlabs.dbohttp.util.Profiler;
+import co.casterlabs.dbohttp.util.Profiler.Phase;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import lombok.NonNull;
-import xyz.e3ndr.fastloggingframework.logging.FastLogger;
-import xyz.e3ndr.fastloggingframework.logging.LogLevel;
 
 public abstract class Database implements Closeable {
-    protected Deque<QueryStat> stats = new ConcurrentLinkedDeque<>();
-    protected volatile long queriesTotal = 0;
+    // Whole requests (per query or per batch), failures are also counted on their own.
+    public final LatencyHistogram queryTimes = new LatencyHistogram();
+    public final LatencyHistogram failedQueryTimes = new LatencyHistogram();
+
+    // Time spent waiting for a connection/lock before running.
+    public final LatencyHistogram queueWaitTimes = new LatencyHistogram();
+
+    // One per Profiler phase, indexed by the phase's ordinal.
+    public final LatencyHistogram[] phaseTimes = new LatencyHistogram[Phase.COUNT];
+
+    {
+        for (int i = 0; i < Phase.COUNT; i++) {
+            this.phaseTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    private final LongAdder queriesTotal = new LongAdder();
     protected volatile boolean isClosed = false;
 
-    protected Database() {
-        Thread cleanupThread = new Thread(() -> {
-            try {
-                while (!this.isClosed) {
-                    if (this.stats.size() > 10000) {
-                        // Limit it to 10k, I doubt we'll hit 10k requests per second.
-                        // This exists to prevent memory leaking from slow threads.
-                        this.stats.clear();
-                        FastLogger.logStatic(LogLevel.WARNING, "Stats grew to >100k entries. An emergency clear was performed to prevent leaks.");
-                        continue;
-                    }
+    private volatile @Nullable Schema schema;
 
-                    QueryStat popped = this.stats.peekFirst();
+    protected void recordStats(@NonNull Profiler profiler, boolean wasSuccessful, int statements) {
+        this.queryTimes.record(profiler.timeSpent_ms);
+        if (!wasSuccessful) {
+            this.failedQueryTimes.record(profiler.timeSpent_ms);
+        }
 
-                    if (popped != null) {
-                        long now = System.nanoTime();
-                        long exp = popped.expiresAt_ns();
+        for (Phase phase : Phase.VALUES) {
+            if (profiler.has(phase)) {
+                this.phaseTimes[phase.ordinal()].record(profiler.took_ms(phase));
+            }
+        }
 
-                        if (now > exp) {
-                            this.stats.removeFirst();
-                            continue; // Immediately loop back around. We only sleep when we're done.
-                        }
-                    }
+        this.queriesTotal.add(statements);
+    }
+
+    public @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        return this.query(context, query, parameters, null);
+    }
+
+    // When a sink is given the rows are handed to it as they are read and the
+    // returned result will not contain any.
+    public abstract @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters, @Nullable RowSink sink) throws UnsupportedOperationException, IllegalArgumentException, QueryException;
+
+    // Reads at most pageSize rows ordered by keyColumns, resuming after the cursor
+    // from the previous page. Since it seeks past the last key instead of using
+    // OFFSET no page rescans the ones before it, and each page is its own query so
+    // the database is only held for as long as one page takes. The key columns
+    // must be in the results, NOT NULL and unique together (e.g end with the
+    // primary key).
+    public @NonNull Page queryPage(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters, @NonNull List<String> keyColumns, int pageSize, @Nullable String cursor) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (!isReadStatement(query)) {
+            throw new IllegalArgumentException("Only SELECT statements can be paged.");
+        }
+        if (keyColumns.isEmpty() || pageSize < 1) {
+            throw new IllegalArgumentException("Paging needs at least one key column and a pageSize above 0.");
+        }
+
+        // Trailing semicolons would end our subquery early.
+        String inner = query.strip();
+        while (inner.endsWith(";")) {
+            inner = inner.substring(0, inner.length() - 1).stripTrailing();
+        }
 
-                    Thread.sleep(1000);
+        StringBuilder keys = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        for (String column : keyColumns) {
+            if (keys.length() > 0) {
+                keys.append(", ");
+                placeholders.append(", ");
+            }
+            keys.append('"').append(column.replace("\"", "\"\"")).append('"');
+            placeholders.append('?');
+        }
+
+        long queryHash = KeysetCursor.hashOf(query, parameters, keyColumns);
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM (").append(inner).append("\n)");
+        JsonArray boundParameters = parameters;
+        if (cursor != null) {
+            Object[] after = KeysetCursor.decode(cursor, queryHash, keyColumns.size());
+
+            MarshallingContext tagged = new MarshallingContext();
+            tagged.blobEncoding = MarshallingContext.BlobEncoding.TAGGED;
+
+            boundParameters = new JsonArray();
+            for (int i = 0; i < parameters.size(); i++) {
+                boundParameters.add(parameters.get(i));
+            }
+            for (Object value : after) {
+                boundParameters.add(tagged.javaToJson(value));
+            }
+
+            sql.append(" WHERE (").append(keys).append(") > (").append(placeholders).append(')');
+        }
+
+        // One extra row tells us whether there's another page without a second query.
+        sql.append(" ORDER BY ").append(keys).append(" LIMIT ").append(pageSize + 1);
+
+        QueryResult result = this.query(context, sql.toString(), boundParameters);
+        List<Object[]> rows = result.rows().subList(0, Math.min(pageSize, result.rows().size()));
+
+        // Checked on every page, not just those with another one after them, so that
+        // a bad key is caught before the client relies on it.
+        int[] keyIndexes = new int[keyColumns.size()];
+        if (!result.columns().isEmpty()) {
+            for (int i = 0; i < keyIndexes.length; i++) {
+                keyIndexes[i] = result.columns().indexOf(keyColumns.get(i));
+                if (keyIndexes[i] == -1) {
+                    throw new IllegalArgumentException("Key column \"" + keyColumns.get(i) + "\" isn't in the results.");
+                }
+            }
+
+            for (Object[] row : rows) {
+                for (int i = 0; i < keyIndexes.length; i++) {
+                    if (row[keyIndexes[i]] == null) {
+                        throw new IllegalArgumentException("Key column \"" + keyColumns.get(i) + "\" can't be paged on, it contains NULLs.");
+                    }
                 }
-            } catch (Throwable t) {
-                t.printStackTrace(); // TODO aaaaaaaaaaaaaaaaaaaa
             }
-        });
-        cleanupThread.setName("Stats cleanup thread.");
-        cleanupThread.setDaemon(true);
-        cleanupThread.start();
+        }
+
+        // A truncated page simply ends early, the cursor picks up from wherever it
+        // stopped so nothing is lost. Unless not even one row fit, then there's
+        // nowhere to pick up from.
+        if (result.truncated() && rows.isEmpty()) {
+            throw new QueryException(QueryErrorCode.RESULT_TOO_LARGE, "Not even a single row fits within the result limits, use a smaller page or raise the limits.");
+        }
+        if (result.rows().size() <= pageSize && !result.truncated()) {
+            return new Page(result, null);
+        }
+
+        Object[] last = rows.get(rows.size() - 1);
+        Object[] lastKeys = new Object[keyIndexes.length];
+        for (int i = 0; i < lastKeys.length; i++) {
+            lastKeys[i] = last[keyIndexes[i]];
+        }
+
+        return new Page(
+            new QueryResult(result.columns(), result.types(), rows, result.profiler(), result.truncated()),
+            KeysetCursor.encode(queryHash, lastKeys)
+        );
     }
 
-    public abstract @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException;
+    // Runs every statement under a single lock acquisition and commit. In ATOMIC
+    // mode a failing statement fails the whole batch with a QueryException.
+    public abstract @NonNull BatchResult batch(@NonNull MarshallingContext context, @NonNull List<BatchStatement> statements, @NonNull BatchMode mode) throws UnsupportedOperationException, IllegalArgumentException, QueryException;
 
     // Override to add your own fields.
     public JsonObject generateReport() {
-        // Calculate the average query time using the samples. We're not worried about
-        // concurrent access or anything. Approximate values are acceptable.
-        double averageQueryTime = 0;
-        int queriesLogged = 0;
+        LatencyHistogram.Snapshot queries = this.queryTimes.snapshot();
+        LatencyHistogram.Snapshot failures = this.failedQueryTimes.snapshot();
+
+        double successRate = -1;
+        if (queries.count() > 0) {
+            successRate = 1 - (failures.count() / (double) queries.count());
+        } // Otherwise, leave it as -1.
+
+        JsonObject phases = new JsonObject();
+        for (Phase phase : Phase.VALUES) {
+            LatencyHistogram histogram = this.phaseTimes[phase.ordinal()];
+            if (histogram.lifetimeCount() > 0) {
+                phases.put(phase.label, histogram.snapshot().toJson());
+            }
+        }
+
+        return new JsonObject()
+            .put("successRate", successRate)
+            .put("queriesRan", this.queriesTotal.sum())
+            .put("queriesPerSecond", queries.perSecond())
+            .put("averageQueryTime", queries.mean_ms())
+            .put("window", LatencyHistogram.WINDOW_S)
+            .put("latency", queries.toJson())
+            .put("queueWait", this.queueWaitTimes.snapshot().toJson())
+            .put("phases", phases);
+    }
+
+    public @NonNull List<String> listTables() throws QueryException {
+        return this.schema().tableNames();
+    }
+
+    // Re-read only when schema_version moves, which SQLite (and so rqlite) bumps on
+    // every change to the schema.
+    public @NonNull Schema schema() throws QueryException {
+        long schemaVersion = this.schemaVersion();
+
+        Schema schema = this.schema;
+        if (schema == null || schema.version() != schemaVersion) {
+            // If it moves again whilst we read, the next call simply reads it again.
+            schema = this.readSchema(schemaVersion);
+            this.schema = schema;
+        }
+        return schema;
+    }
 
-        int successes = 0;
+    // Must not wait behind queries, this is asked on every call to schema().
+    protected abstract long schemaVersion() throws QueryException;
 
-        long now_ns = System.nanoTime();
-        for (QueryStat stat : this.stats) {
-            if (now_ns > stat.expiresAt_ns()) continue; // Expired, skip it (removing does nothing).
+    private Schema readSchema(long version) throws QueryException {
+        MarshallingContext context = new MarshallingContext();
 
-            averageQueryTime += stat.took_ms();
-            queriesLogged++;
+        Map<String, String> types = new LinkedHashMap<>();
+        for (Object[] row : this.query(context, "SELECT name, type FROM sqlite_schema WHERE type IN ('table','view') AND name NOT LIKE 'sqlite_%' ORDER BY name", JsonArray.EMPTY_ARRAY).rows()) {
+            types.put((String) row[0], (String) row[1]);
+        }
+
+        Map<String, List<Schema.Column>> columns = new HashMap<>();
+        for (Object[] row : this.query(
+            context,
+            "SELECT m.name, p.name, p.type, p.\"notnull\", p.dflt_value, p.pk FROM sqlite_schema m JOIN pragma_table_info(m.name) p WHERE m.type IN ('table','view') AND m.name NOT LIKE 'sqlite_%' ORDER BY m.name, p.cid",
+            JsonArray.EMPTY_ARRAY
+        ).rows()) {
+            columns
+                .computeIfAbsent((String) row[0], (t) -> new ArrayList<>())
+                .add(new Schema.Column((String) row[1], (String) row[2], ((Number) row[3]).intValue() != 0, (String) row[4], ((Number) row[5]).intValue()));
+        }
+
+        // One row per indexed column, in order.
+        Map<String, Map<String, Schema.Index>> indexes = new HashMap<>();
+        for (Object[] row : this.query(
+            context,
+            "SELECT m.name, il.name, il.\"unique\", il.origin, ii.name FROM sqlite_schema m JOIN pragma_index_list(m.name) il JOIN pragma_index_info(il.name) ii WHERE m.type = 'table' AND m.name NOT LIKE 'sqlite_%' ORDER BY m.name, il.name, ii.seqno",
+            JsonArray.EMPTY_ARRAY
+        ).rows()) {
+            indexes
+                .computeIfAbsent((String) row[0], (t) -> new LinkedHashMap<>())
+                .computeIfAbsent((String) row[1], (i) -> new Schema.Index(i, ((Number) row[2]).intValue() != 0, (String) row[3], new ArrayList<>()))
+                .columns()
+                .add((String) row[4]); // Null for expressions.
+        }
+
+        List<Schema.Table> tables = new ArrayList<>(types.size());
+        for (Map.Entry<String, String> entry : types.entrySet()) {
+            String name = entry.getKey();
+            tables.add(
+                new Schema.Table(
+                    name,
+                    entry.getValue(),
+                    columns.getOrDefault(name, Collections.emptyList()),
+                    new ArrayList<>(indexes.getOrDefault(name, Collections.emptyMap()).values())
+                )
+            );
+        }
+
+        return new Schema(version, tables);
+    }
+
+    // 0 for no limit.
+    protected static long timeoutOf(@NonNull MarshallingContext context, long serverTimeout_ms) {
+        if (context.timeoutMillis > 0 && (serverTimeout_ms <= 0 || context.timeoutMillis < serverTimeout_ms)) {
+            return context.timeoutMillis;
+        }
+        return Math.max(0, serverTimeout_ms);
+    }
+
+    // Statements that can only ever read, judging by their first keyword. This is
+    // only a hint (e.g WITH ... INSERT), drivers must cope with a write slipping
+    // through.
+    protected static boolean isReadStatement(String query) {
+        int start = 0;
 
-            if (stat.wasSuccessful()) {
-                successes++;
+        // Skip over any leading whitespace and comments.
+        while (start < query.length()) {
+            if (Character.isWhitespace(query.charAt(start))) {
+                start++;
+            } else if (query.startsWith("--", start)) {
+                int end = query.indexOf('\n', start);
+                if (end == -1) return false;
+                start = end + 1;
+            } else if (query.startsWith("/*", start)) {
+                int end = query.indexOf("*/", start + 2);
+                if (end == -1) return false;
+                start = end + 2;
+            } else {
+                break;
             }
         }
 
-        double successRate = -1;
+        int end = start;
+        while (end < query.length() && Character.isLetter(query.charAt(end))) {
+            end++;
+        }
 
-        if (queriesLogged > 1) {
-            averageQueryTime /= queriesLogged; // Don't forget to divide!
-            successRate = successes / (double) queriesLogged;
-        } // Otherwise, leave it as -1.
+        switch (query.substring(start, end).toUpperCase()) {
+            case "SELECT":
+            case "WITH":
+            case "VALUES":
+            case "EXPLAIN":
+                return true;
 
-        return new JsonObject()
-            .put("successRate", successRate)
-            .put("queriesRan", this.queriesTotal)
-            .put("queriesPerSecond", queriesLogged / (double) QueryStat.STATS_TIMEFRAME_S)
-            .put("averageQueryTime", averageQueryTime);
+            default:
+                return false;
+        }
     }
 
-    public abstract @NonNull List<String> listTables();
+    // How many callers are waiting on the database. Must be cheap and must never
+    // block, it gets called by the metrics scraper.
+    public int queueDepth() {
+        return 0;
+    }
 
 }
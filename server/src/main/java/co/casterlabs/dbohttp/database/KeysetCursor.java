@@ -0,0 +1,121 @@
+package co.casterlabs.dbohttp.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+
+import co.casterlabs.rakurai.json.element.JsonArray;
+import lombok.SneakyThrows;
+
+// The last sort key of a page, bound to the query it came from so that it can't
+// be used to resume a different one. Values are written with their exact type,
+// a long that went through JSON as a double could skip or repeat rows.
+class KeysetCursor {
+    private static final int NULL = 0;
+    private static final int INTEGER = 1;
+    private static final int REAL = 2;
+    private static final int TEXT = 3;
+    private static final int BLOB = 4;
+
+    @SneakyThrows
+    static long hashOf(String query, JsonArray parameters, List<String> keyColumns) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(query.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(parameters.toString(false).getBytes(StandardCharsets.UTF_8));
+        for (String column : keyColumns) {
+            digest.update((byte) 0);
+            digest.update(column.getBytes(StandardCharsets.UTF_8));
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    @SneakyThrows
+    static String encode(long queryHash, Object[] keys) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeLong(queryHash);
+        out.writeByte(keys.length);
+        for (Object key : keys) {
+            if (key == null) {
+                out.writeByte(NULL);
+            } else if (key instanceof Double || key instanceof Float) {
+                out.writeByte(REAL);
+                out.writeDouble(((Number) key).doubleValue());
+            } else if (key instanceof Number) {
+                out.writeByte(INTEGER);
+                out.writeLong(((Number) key).longValue());
+            } else if (key instanceof byte[]) {
+                out.writeByte(BLOB);
+                out.writeInt(((byte[]) key).length);
+                out.write((byte[]) key);
+            } else {
+                byte[] text = key.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TEXT);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    static Object[] decode(String cursor, long queryHash, int keyCount) {
+        long hash;
+        Object[] keys;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+
+            hash = in.readLong();
+            keys = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < keys.length; i++) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case NULL:
+                        break;
+
+                    case INTEGER:
+                        keys[i] = in.readLong();
+                        break;
+
+                    case REAL:
+                        keys[i] = in.readDouble();
+                        break;
+
+                    case TEXT:
+                    case BLOB: {
+                        int length = in.readInt();
+                        if (length < 0 || length > in.available()) throw new IOException();
+
+                        byte[] value = new byte[length];
+                        in.readFully(value);
+                        keys[i] = type == TEXT ? new String(value, StandardCharsets.UTF_8) : value;
+                        break;
+                    }
+
+                    default:
+                        throw new IOException();
+                }
+            }
+
+            if (in.available() > 0) throw new IOException();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor.");
+        }
+
+        if (hash != queryHash || keys.length != keyCount) {
+            throw new IllegalArgumentException("That cursor belongs to a different query.");
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,8 @@
+package co.casterlabs.dbohttp.database;
+
+import org.jetbrains.annotations.Nullable;
+
+// One page of a keyset paginated query, nextCursor is null once there's nothing
+// left to read.
+public record Page(QueryResult result, @Nullable String nextCursor) {
+}
@@ -14,7 +14,17 @@ public class QueryException extends Exception {
         INTERNAL_ERROR,
         PREPARATION_ERROR,
         FAILED_TO_EXECUTE,
-        SQL_ERROR
+        SQL_ERROR,
+
+        // Turned away before anything ran, safe to retry after a moment.
+        OVERLOADED,
+
+        // Stopped for running past its timeout, anything it wrote was rolled back.
+        TIMED_OUT,
+
+        // The result went over maxResultRows/maxResultBytes (or the request's own
+        // limits), anything it wrote was rolled back.
+        RESULT_TOO_LARGE,
 
     }
 
@@ -1,16 +1,59 @@
 package co.casterlabs.dbohttp.database;
 
 import java.util.List;
-import java.util.Map;
 
+import co.casterlabs.dbohttp.util.MarshallingContext;
 import co.casterlabs.dbohttp.util.Profiler;
 import co.casterlabs.rakurai.json.Rson;
+import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonElement;
+import co.casterlabs.rakurai.json.element.JsonObject;
 
-public record QueryResult(List<Map<String, JsonElement>> rows, Profiler profiler) {
+// Rows are kept column-ordered, the column names only exist once. Values are
+// left as plain Java objects (null, Number, String, byte[]) until the response
+// is written, that way the encoding is up to the caller.
+public record QueryResult(List<String> columns, List<String> types, List<Object[]> rows, Profiler profiler, boolean truncated) {
 
-    public JsonElement rowsJson() {
-        return Rson.DEFAULT.toJson(this.rows);
+    public QueryResult(List<String> columns, List<String> types, List<Object[]> rows, Profiler profiler) {
+        this(columns, types, rows, profiler, false);
+    }
+
+    // [{"column": value, ...}, ...]
+    public JsonElement rowsJson(MarshallingContext context) {
+        JsonArray json = new JsonArray();
+        for (Object[] row : this.rows) {
+            json.add(rowJson(context, this.columns, row));
+        }
+        return json;
+    }
+
+    // {"columns": [...], "types": [...], "rows": [[value, ...], ...]}
+    public JsonElement columnarJson(MarshallingContext context) {
+        JsonArray rows = new JsonArray();
+        for (Object[] row : this.rows) {
+            rows.add(rowArrayJson(context, row));
+        }
+
+        return new JsonObject()
+            .put("columns", Rson.DEFAULT.toJson(this.columns))
+            .put("types", Rson.DEFAULT.toJson(this.types))
+            .put("rows", rows);
+    }
+
+    public static JsonObject rowJson(MarshallingContext context, List<String> columns, Object[] row) {
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < row.length; i++) {
+            json.put(columns.get(i), context.javaToJson(row[i]));
+        }
+        return json;
+    }
+
+    public static JsonArray rowArrayJson(MarshallingContext context, Object[] row) {
+        JsonArray json = new JsonArray();
+        for (Object value : row) {
+            json.add(context.javaToJson(value));
+        }
+        return json;
     }
 
 }
@@ -0,0 +1,22 @@
+package co.casterlabs.dbohttp.database;
+
+// See https://rqlite.io/docs/api/read-consistency/
+public enum ReadConsistency {
+    // Served by whichever node receives it, may be stale.
+    NONE,
+
+    // Served by the leader, stale for at most a heartbeat during a leadership change.
+    WEAK,
+
+    // Served by the leader once it has confirmed it is still the leader.
+    LINEARIZABLE,
+
+    // Goes through the Raft log like a write.
+    STRONG,
+    ;
+
+    public String level() {
+        return this.name().toLowerCase();
+    }
+
+}
@@ -0,0 +1,94 @@
+package co.casterlabs.dbohttp.database;
+
+import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
+import co.casterlabs.dbohttp.util.MarshallingContext;
+import lombok.NonNull;
+
+// Caps how many rows (and roughly how many bytes of them) a request may hold in
+// memory, checked as each row is read so that an oversized result never gets
+// the chance to fill the heap. Limits of 0 mean no limit.
+public class ResultBudget {
+    private final long maxRows;
+    private final long maxBytes;
+    private final boolean truncate;
+
+    private long rows = 0;
+    private long bytes = 0;
+    private boolean exhausted = false;
+
+    private ResultBudget(long maxRows, long maxBytes, boolean truncate) {
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.truncate = truncate;
+    }
+
+    // Like the timeout, the request's limits can only tighten the server's.
+    public static ResultBudget of(@NonNull MarshallingContext context, long serverMaxRows, long serverMaxBytes) {
+        return new ResultBudget(
+            tighten(context.maxRows, serverMaxRows),
+            tighten(context.maxBytes, serverMaxBytes),
+            context.truncate
+        );
+    }
+
+    // Results with the server's own limits are the same for everyone, so they can
+    // be cached and shared.
+    public static boolean isCustom(@NonNull MarshallingContext context) {
+        return context.maxRows > 0 || context.maxBytes > 0 || context.truncate;
+    }
+
+    // False once the result should end before this row, if the request asked for
+    // truncation. Otherwise going over is a RESULT_TOO_LARGE.
+    public boolean admit(@NonNull Object[] row) throws QueryException {
+        if (this.exhausted) return false;
+
+        long size = estimateSize(row);
+        String over = null;
+        if (this.maxRows > 0 && this.rows + 1 > this.maxRows) {
+            over = this.maxRows + " rows";
+        } else if (this.maxBytes > 0 && this.bytes + size > this.maxBytes) {
+            over = this.maxBytes + " bytes";
+        }
+
+        if (over != null) {
+            if (!this.truncate) {
+                throw new QueryException(
+                    QueryErrorCode.RESULT_TOO_LARGE,
+                    "The result is larger than the limit of " + over + ". Narrow the query, page it or ask for it to be truncated."
+                );
+            }
+
+            this.exhausted = true;
+            return false;
+        }
+
+        this.rows++;
+        this.bytes += size;
+        return true;
+    }
+
+    // Rough, but close enough to keep within budget.
+    public static long estimateSize(@NonNull Object[] row) {
+        long size = 16 + row.length * 8L;
+
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += 40 + ((String) value).length() * 2L;
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 24;
+            }
+        }
+
+        return size;
+    }
+
+    private static long tighten(long requested, long server) {
+        if (requested > 0 && (server <= 0 || requested < server)) {
+            return requested;
+        }
+        return Math.max(0, server);
+    }
+
+}
@@ -0,0 +1,24 @@
+package co.casterlabs.dbohttp.database;
+
+import java.io.IOException;
+import java.util.List;
+
+import co.casterlabs.dbohttp.database.QueryException;
+import lombok.NonNull;
+
+// Receives rows as they are read instead of having them collected into the
+// QueryResult. Throwing from either method aborts the query.
+public interface RowSink {
+
+    // Called before anything else with the statement's deadline (System.nanoTime()),
+    // 0 if it has none. The database may be held whilst the sink blocks, so it
+    // mustn't block past this.
+    public default void deadline(long deadline_ns) {}
+
+    // Called exactly once, before any rows, if the statement produced a result.
+    public void columns(@NonNull List<String> columns, @NonNull List<String> types) throws IOException, QueryException;
+
+    // Values are in the same order as the columns, see QueryResult.
+    public void row(@NonNull Object[] row) throws IOException, QueryException;
+
+}
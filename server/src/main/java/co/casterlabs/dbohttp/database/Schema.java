@@ -0,0 +1,80 @@
+package co.casterlabs.dbohttp.database;
+
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonObject;
+
+// The user's tables and views as of `version`, SQLite's schema_version.
+public record Schema(long version, List<Table> tables) {
+
+    public List<String> tableNames() {
+        return this.tables
+            .stream()
+            .map(Table::name)
+            .toList();
+    }
+
+    public JsonObject toJson() {
+        JsonArray tables = new JsonArray();
+        for (Table table : this.tables) {
+            JsonArray columns = new JsonArray();
+            for (Column column : table.columns) {
+                JsonObject columnJson = new JsonObject()
+                    .put("name", column.name)
+                    .put("type", column.type)
+                    .put("notNull", column.notNull)
+                    .put("primaryKey", column.primaryKey);
+
+                if (column.defaultValue == null) {
+                    columnJson.putNull("defaultValue");
+                } else {
+                    columnJson.put("defaultValue", column.defaultValue);
+                }
+
+                columns.add(columnJson);
+            }
+
+            JsonArray indexes = new JsonArray();
+            for (Index index : table.indexes) {
+                JsonArray indexColumns = new JsonArray();
+                index.columns.forEach(indexColumns::add);
+
+                indexes.add(
+                    new JsonObject()
+                        .put("name", index.name)
+                        .put("unique", index.unique)
+                        .put("origin", index.origin)
+                        .put("columns", indexColumns)
+                );
+            }
+
+            tables.add(
+                new JsonObject()
+                    .put("name", table.name)
+                    .put("type", table.type)
+                    .put("columns", columns)
+                    .put("indexes", indexes)
+            );
+        }
+
+        return new JsonObject()
+            .put("version", this.version)
+            .put("tables", tables);
+    }
+
+    // type is "table" or "view".
+    public static record Table(String name, String type, List<Column> columns, List<Index> indexes) {
+    }
+
+    // primaryKey is the column's position in the primary key, 0 if it isn't part of it.
+    public static record Column(String name, String type, boolean notNull, @Nullable String defaultValue, int primaryKey) {
+    }
+
+    // origin is "c" for CREATE INDEX, "u" for UNIQUE and "pk" for PRIMARY KEY.
+    public static record Index(String name, boolean unique, String origin, List<String> columns) {
+    }
+
+}
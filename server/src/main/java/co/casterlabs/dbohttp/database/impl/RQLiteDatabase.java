@@ -1,31 +1,44 @@
 package co.casterlabs.dbohttp.database.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.dbohttp.config.DatabaseConfig;
+import co.casterlabs.dbohttp.database.BatchResult;
+import co.casterlabs.dbohttp.database.BatchResult.BatchMode;
+import co.casterlabs.dbohttp.database.BatchResult.StatementResult;
+import co.casterlabs.dbohttp.database.BatchStatement;
 import co.casterlabs.dbohttp.database.Database;
 import co.casterlabs.dbohttp.database.QueryException;
 import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
 import co.casterlabs.dbohttp.database.QueryResult;
-import co.casterlabs.dbohttp.database.QueryStat;
+import co.casterlabs.dbohttp.database.ResultBudget;
+import co.casterlabs.dbohttp.database.ReadConsistency;
+import co.casterlabs.dbohttp.database.RowSink;
+import co.casterlabs.dbohttp.util.JsonStreamReader;
+import co.casterlabs.dbohttp.util.JsonStreamReader.Token;
 import co.casterlabs.dbohttp.util.MarshallingContext;
 import co.casterlabs.dbohttp.util.Profiler;
+import co.casterlabs.dbohttp.util.Profiler.Phase;
 import co.casterlabs.rakurai.json.Rson;
-import co.casterlabs.rakurai.json.TypeToken;
-import co.casterlabs.rakurai.json.annotating.JsonClass;
-import co.casterlabs.rakurai.json.annotating.JsonDeserializationMethod;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonElement;
-import co.casterlabs.rakurai.json.serialization.JsonParseException;
-import co.casterlabs.rakurai.json.validation.JsonValidationException;
+import co.casterlabs.rakurai.json.element.JsonObject;
 import lombok.NonNull;
-import lombok.SneakyThrows;
+import lombok.RequiredArgsConstructor;
 import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -37,17 +50,56 @@ import xyz.e3ndr.fastloggingframework.logging.LogLevel;
 public class RQLiteDatabase extends Database {
     private static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
 
-    private final OkHttpClient client = new OkHttpClient();
-    private final String connectionUrl;
+    private final OkHttpClient client;
+    private final Semaphore permits;
+    private final long accessTimeout_ms;
+    private final int maxQueued;
+    private final long queryTimeout_ms;
+    private final long maxResultRows;
+    private final long maxResultBytes;
+    private final ReadConsistency defaultConsistency;
+
+    // Base urls, e.g "http://localhost:4001". The first one is connectionString.
+    private final List<String> nodes = new ArrayList<>();
+    private final AtomicInteger nextNode = new AtomicInteger();
+
+    // Found via /nodes on first use and whenever the leader stops answering.
+    private volatile @Nullable String leader;
 
     public RQLiteDatabase(DatabaseConfig config) throws SQLException {
         super();
 
-        this.connectionUrl = config.connectionString + "?blob_array&associative";
+        this.defaultConsistency = config.rqliteReadConsistency == null ? ReadConsistency.WEAK : config.rqliteReadConsistency;
+
+        this.nodes.add(toBaseUrl(config.connectionString));
+        for (String node : config.rqliteNodes) {
+            String baseUrl = toBaseUrl(node);
+            if (!this.nodes.contains(baseUrl)) {
+                this.nodes.add(baseUrl);
+            }
+        }
+
+        // Every node gets its own slice of the limit. Calls are made on the caller's
+        // thread, so OkHttp's dispatcher doesn't bound them, this does.
+        this.permits = new Semaphore(config.rqliteMaxConcurrentRequests * this.nodes.size(), true);
+        this.accessTimeout_ms = TimeUnit.SECONDS.toMillis(config.accessTimeoutSeconds);
+        this.maxQueued = config.maxQueuedQueries;
+        this.queryTimeout_ms = config.queryTimeoutMillis;
+        this.maxResultRows = config.maxResultRows;
+        this.maxResultBytes = config.maxResultBytes;
+
+        this.client = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(config.rqliteMaxIdleConnections, config.rqliteKeepAliveSeconds, TimeUnit.SECONDS))
+            .connectTimeout(config.rqliteConnectTimeoutSeconds, TimeUnit.SECONDS)
+            .readTimeout(config.accessTimeoutSeconds, TimeUnit.SECONDS)
+            .writeTimeout(config.accessTimeoutSeconds, TimeUnit.SECONDS)
+            .callTimeout(config.accessTimeoutSeconds, TimeUnit.SECONDS)
+            .followRedirects(false) // We handle these ourselves so that we learn the leader.
+            .build();
     }
 
     @Override
-    public @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+    public @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters, @Nullable RowSink sink) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
         if (this.isClosed) {
             throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
         }
@@ -57,109 +109,596 @@ public class RQLiteDatabase extends Database {
         boolean wasSuccessful = false;
 
         try {
-            JsonArray statement = profiler.start("Statement Preparation", () -> {
-                JsonArray arr = new JsonArray();
-                arr.add(query);
-                parameters.forEach(arr::add);
-                return new JsonArray().add(arr);
-            });
-
-            RQLiteResponse response;
-            try {
-                String bodyStr = profiler.start("Statement Execution", () -> {
-                    RequestBody body = RequestBody.create(
-                        statement.toString(false),
-                        APPLICATION_JSON
-                    );
-
-                    Request request = new Request.Builder()
-                        .url(this.connectionUrl)
-                        .post(body)
-                        .build();
-
-                    Call call = this.client.newCall(request);
-                    try (Response res = call.execute()) {
-                        return res.body().string();
-                    }
-                });
+            profiler.begin(Phase.STATEMENT_PREPARATION);
+            JsonArray statement = new JsonArray().add(toStatement(query, parameters));
+            profiler.end();
+
+            long timeout_ms = timeoutOf(context, this.queryTimeout_ms);
 
-                response = profiler.start("Result Marshalling", () -> {
-                    return Rson.DEFAULT.fromJson(bodyStr, RQLiteResponse.class);
-                });
-            } catch (Throwable e) {
-                FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst executing query.\n%s", e);
-                throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, "An error occurred whilst executing query.");
+            // With a sink the rows go straight from rqlite's response to it, otherwise
+            // they're held and so counted against the budget.
+            ResultBudget budget = sink == null ? this.budgetOf(context) : null;
+            if (sink != null) {
+                sink.deadline(timeout_ms > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms) : 0);
             }
 
-            // We want to skip the row marshalling process if we can...
-            List<Map<String, JsonElement>> rows;
-            if (response.results.size() == 0) {
-                profiler.log("Result Marshalling", 0);
-                rows = Collections.emptyList();
+            QueryResult queryResult;
+            if (isReadStatement(query)) {
+                RQLiteResponse response = this.execute(statement, Endpoint.QUERY, this.consistencyOf(context), false, timeout_ms, sink, budget, profiler);
+
+                if (isWriteRejection(response)) {
+                    // Something like WITH ... INSERT, rqlite wants it sent as a write.
+                    // Nothing has reached the sink (or the budget) yet since it was an error.
+                    response = this.execute(statement, Endpoint.EXECUTE, null, false, timeout_ms, sink, budget, profiler);
+                }
+
+                queryResult = toQueryResult(response, profiler);
             } else {
-                rows = response.results.get(0).rows;
+                queryResult = toQueryResult(this.execute(statement, Endpoint.EXECUTE, null, false, timeout_ms, sink, budget, profiler), profiler);
             }
 
 //            FastLogger.logStatic(LogLevel.DEBUG, "Ran `%s` in %fms, rows returned: %d.", query, took, rows.size());
 
             wasSuccessful = true;
 
-            return new QueryResult(rows, profiler /* mutable */);
+            return queryResult;
         } catch (Throwable t) {
-            if (t instanceof QueryException) {
-                throw (QueryException) t;
-            } else if (t instanceof UnsupportedOperationException) {
-                throw (UnsupportedOperationException) t;
-            } else if (t instanceof IllegalArgumentException) {
-                throw (IllegalArgumentException) t;
+            throw rethrow(t);
+        } finally {
+            this.recordStats(profiler, wasSuccessful, 1);
+        }
+    }
+
+    @Override
+    public @NonNull BatchResult batch(@NonNull MarshallingContext context, @NonNull List<BatchStatement> statements, @NonNull BatchMode mode) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (this.isClosed) {
+            throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
+        }
+
+        Profiler profiler = new Profiler();
+
+        boolean wasSuccessful = false;
+
+        try {
+            // rqlite natively supports multiple statements per request.
+            profiler.begin(Phase.STATEMENT_PREPARATION);
+            JsonArray body = new JsonArray();
+            for (BatchStatement statement : statements) {
+                body.add(toStatement(statement.sql(), statement.params()));
+            }
+            profiler.end();
+
+            // /db/request takes a mix of reads and writes, the level applies to the reads.
+            // Without transaction=true rqlite commits each statement by itself, so in
+            // INDEPENDENT mode other clients can see the batch half-applied (unlike
+            // SQLite, where it all lands in a single commit).
+            RQLiteResponse response = this.execute(body, Endpoint.REQUEST, this.consistencyOf(context), mode == BatchMode.ATOMIC, timeoutOf(context, this.queryTimeout_ms), null, this.budgetOf(context), profiler);
+            if (response.error != null) {
+                throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, response.error);
+            }
+
+            List<StatementResult> results = new ArrayList<>(statements.size());
+
+            for (int idx = 0; idx < statements.size(); idx++) {
+                if (idx >= response.results.size()) {
+                    // rqlite stops at the first failure inside of a transaction.
+                    break;
+                }
+
+                RQLiteResult result = response.results.get(idx);
+
+                if (result.error == null) {
+                    results.add(new StatementResult(result.toQueryResult(new Profiler()), null));
+                } else if (mode == BatchMode.ATOMIC) {
+                    throw new QueryException(QueryErrorCode.SQL_ERROR, String.format("Statement #%d: %s", idx, result.error));
+                } else {
+                    results.add(new StatementResult(null, new QueryException(QueryErrorCode.SQL_ERROR, result.error)));
+                }
+            }
+
+            wasSuccessful = true;
+
+            return new BatchResult(results, profiler /* mutable */);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        } finally {
+            this.recordStats(profiler, wasSuccessful, statements.size());
+        }
+    }
+
+    private ResultBudget budgetOf(MarshallingContext context) {
+        return ResultBudget.of(context, this.maxResultRows, this.maxResultBytes);
+    }
+
+    private ReadConsistency consistencyOf(MarshallingContext context) {
+        return context.readConsistency == null ? this.defaultConsistency : context.readConsistency;
+    }
+
+    // Only reads at NONE may be served by a follower, so those are spread evenly.
+    private String nodeFor(Endpoint endpoint, @Nullable ReadConsistency consistency) {
+        if (endpoint == Endpoint.QUERY && consistency == ReadConsistency.NONE) {
+            return this.nodes.get(Math.floorMod(this.nextNode.getAndIncrement(), this.nodes.size()));
+        }
+
+        String leader = this.leader;
+        if (leader == null) {
+            leader = this.discoverLeader();
+            this.leader = leader;
+        }
+        return leader;
+    }
+
+    private String discoverLeader() {
+        for (String node : this.nodes) {
+            Request request = new Request.Builder()
+                .url(node + "/nodes?ver=2")
+                .get()
+                .build();
+
+            try (Response res = this.client.newCall(request).execute()) {
+                if (!res.isSuccessful()) continue;
+
+                JsonElement json = Rson.DEFAULT.fromJson(res.body().string(), JsonElement.class);
+                String leader = findLeader(json);
+                if (leader != null) {
+                    FastLogger.logStatic(LogLevel.DEBUG, "rqlite leader is %s.", leader);
+                    return leader;
+                }
+            } catch (Throwable t) {
+                FastLogger.logStatic(LogLevel.DEBUG, "Unable to ask %s for the rqlite leader.\n%s", node, t);
+            }
+        }
+
+        // Nobody knows, let the first node forward for us until we learn otherwise.
+        return this.nodes.get(0);
+    }
+
+    // rqlite answers with {"nodes": [...]} for ver=2 and {"<id>": {...}} before that.
+    private static @Nullable String findLeader(JsonElement json) {
+        if (!json.isJsonObject()) return null;
+
+        JsonObject obj = json.getAsObject();
+        List<JsonElement> nodes = new ArrayList<>();
+        if (obj.containsKey("nodes") && obj.get("nodes").isJsonArray()) {
+            obj.getArray("nodes").forEach(nodes::add);
+        } else {
+            obj.entrySet().forEach((entry) -> nodes.add(entry.getValue()));
+        }
+
+        for (JsonElement node : nodes) {
+            if (!node.isJsonObject()) continue;
+
+            JsonObject nodeObj = node.getAsObject();
+            if (nodeObj.containsKey("leader") && nodeObj.getBoolean("leader") && nodeObj.containsKey("api_addr")) {
+                return toBaseUrl(nodeObj.getString("api_addr"));
             }
+        }
+        return null;
+    }
 
-            FastLogger.logStatic(LogLevel.SEVERE, "An internal error occurred.\n%s", t);
-            throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+    private void followLeader(Response res) {
+        String location = res.header("Location");
+        if (location != null) {
+            this.leader = toBaseUrl(location);
+            FastLogger.logStatic(LogLevel.DEBUG, "rqlite leader moved to %s.", this.leader);
+        }
+    }
+
+    private void forgetLeader(String node) {
+        if (node.equals(this.leader)) {
+            this.leader = null;
+        }
+    }
+
+    private Request buildRequest(String node, JsonArray statements, Endpoint endpoint, @Nullable ReadConsistency consistency, boolean transaction, long timeout_ms) {
+        RequestBody body = RequestBody.create(
+            statements.toString(false),
+            APPLICATION_JSON
+        );
+
+        // We ask for the non-associative form, column names only appear once.
+        StringBuilder url = new StringBuilder(node)
+            .append(endpoint.path)
+            .append("?blob_array");
+        if (consistency != null) {
+            url.append("&level=").append(consistency.level());
+        }
+        if (transaction) {
+            url.append("&transaction");
+        }
+        if (timeout_ms > 0) {
+            // Has rqlite stop the statement itself, our call timeout is the backstop.
+            url.append("&db_timeout=").append(timeout_ms).append("ms");
+        }
+
+        return new Request.Builder()
+            .url(url.toString())
+            .post(body)
+            .build();
+    }
+
+    private RQLiteResponse execute(JsonArray statements, Endpoint endpoint, @Nullable ReadConsistency consistency, boolean transaction, long timeout_ms, @Nullable RowSink sink, @Nullable ResultBudget budget, Profiler profiler) throws QueryException {
+        this.acquire(profiler);
+        try {
+            // Only the status line and headers are in by the end of this, the body is
+            // parsed as it arrives.
+            profiler.begin(Phase.STATEMENT_EXECUTION);
+            Response res = this.send(statements, endpoint, consistency, transaction, timeout_ms);
+            profiler.end();
+
+            try (res) {
+                profiler.begin(Phase.RESULT_MARSHALLING);
+                RQLiteResponse response = RQLiteResponse.read(res.body().charStream(), sink, budget);
+                profiler.end();
+                return response;
+            }
+        } catch (Throwable e) {
+            if (e instanceof QueryException) {
+                throw (QueryException) e;
+            } else if (e instanceof InterruptedIOException) {
+                // OkHttp's call/read timeouts, see accessTimeoutSeconds and queryTimeoutMillis.
+                throw notInTime(profiler.phase);
+            }
+
+            FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst executing query.\n%s", e);
+            throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, "An error occurred whilst executing query.");
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    // Past rqliteMaxConcurrentRequests calls wait here, at most accessTimeoutSeconds
+    // and never more than maxQueuedQueries at once.
+    private void acquire(Profiler profiler) throws QueryException {
+        if (this.maxQueued > 0 && this.permits.availablePermits() == 0 && this.permits.getQueueLength() >= this.maxQueued) {
+            throw new QueryException(QueryErrorCode.OVERLOADED, "Too many queries are waiting on rqlite.");
+        }
+
+        long start_ns = System.nanoTime();
+        try {
+            profiler.begin(Phase.ACCESS_LOCK_ACQUISITION);
+            try {
+                if (this.accessTimeout_ms <= 0) {
+                    this.permits.acquire();
+                } else if (!this.permits.tryAcquire(this.accessTimeout_ms, TimeUnit.MILLISECONDS)) {
+                    throw new QueryException(QueryErrorCode.OVERLOADED, "Timed out waiting for rqlite.");
+                }
+            } catch (InterruptedException ignored) {
+                throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+            }
+            profiler.end();
         } finally {
-            this.stats.add(new QueryStat(System.nanoTime(), profiler.timeSpent_ms, wasSuccessful));
-            this.queriesTotal++;
+            this.queueWaitTimes.record((System.nanoTime() - start_ns) / 1000000d);
+        }
+    }
+
+    private Response send(JsonArray statements, Endpoint endpoint, @Nullable ReadConsistency consistency, boolean transaction, long timeout_ms) throws IOException, QueryException {
+        String node = this.nodeFor(endpoint, consistency);
+        Response res = this.call(node, statements, endpoint, consistency, transaction, timeout_ms);
+
+        if (res.isRedirect()) {
+            this.followLeader(res);
+            res.close();
+
+            // Once is enough, a second redirect means the cluster is mid-election.
+            node = this.nodeFor(endpoint, consistency);
+            res = this.call(node, statements, endpoint, consistency, transaction, timeout_ms);
+        }
+
+        try {
+            checkStatus(node, res);
+        } catch (QueryException | IOException e) {
+            res.close();
+            throw e;
+        }
+        return res;
+    }
+
+    private Response call(String node, JsonArray statements, Endpoint endpoint, @Nullable ReadConsistency consistency, boolean transaction, long timeout_ms) throws IOException {
+        try {
+            Call call = this.client.newCall(this.buildRequest(node, statements, endpoint, consistency, transaction, timeout_ms));
+            if (timeout_ms > 0) {
+                call.timeout().timeout(timeout_ms, TimeUnit.MILLISECONDS);
+            }
+            return call.execute();
+        } catch (IOException e) {
+            this.forgetLeader(node);
+            throw e;
+        }
+    }
+
+    private void checkStatus(String node, Response res) throws IOException, QueryException {
+        if (res.isSuccessful()) return;
+
+        // Usually a 503 whilst there's no leader, ask again next time.
+        this.forgetLeader(node);
+        throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, String.format("rqlite responded with HTTP %d: %s", res.code(), res.body().string().trim()));
+    }
+
+    // Unlike SQLite's own timeout we can't know whether rqlite got around to it.
+    private static QueryException notInTime(@Nullable Phase phase) {
+        return new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, String.format("rqlite did not respond in time (during %s), the statement may still have run.", phase));
+    }
+
+    // rqlite refuses writes sent to /db/query rather than running them.
+    private static boolean isWriteRejection(RQLiteResponse response) {
+        if (response.results == null || response.results.isEmpty()) return false;
+
+        String error = response.results.get(0).error;
+        return error != null && (error.contains("readonly") || error.contains("read-only") || error.contains("query operation"));
+    }
+
+    private static @Nullable String nextStringOrNull(JsonStreamReader reader) throws IOException {
+        if (reader.peek() == Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    // "http://host:4001/db/query?blob_array" -> "http://host:4001"
+    private static String toBaseUrl(String url) {
+        int queryIdx = url.indexOf('?');
+        if (queryIdx != -1) {
+            url = url.substring(0, queryIdx);
+        }
+
+        int dbIdx = url.indexOf("/db/");
+        if (dbIdx != -1) {
+            url = url.substring(0, dbIdx);
+        }
+
+        if (!url.contains("://")) {
+            url = "http://" + url; // api_addr is host:port.
+        }
+
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        return url;
+    }
+
+    // For single statement requests.
+    private static QueryResult toQueryResult(RQLiteResponse response, Profiler profiler) throws QueryException {
+        if (response.error != null) {
+            throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, response.error);
+        }
+
+        // We want to skip the row marshalling process if we can...
+        if (response.results.size() == 0) {
+            return new QueryResult(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), profiler /* mutable */);
+        }
+
+        RQLiteResult result = response.results.get(0);
+        if (result.error != null) {
+            throw new QueryException(QueryErrorCode.SQL_ERROR, result.error);
+        }
+
+        return result.toQueryResult(profiler);
+    }
+
+    private static JsonArray toStatement(String query, JsonArray parameters) {
+        JsonArray arr = new JsonArray();
+        arr.add(query);
+        parameters.forEach(arr::add);
+        return arr;
+    }
+
+    private static QueryException rethrow(Throwable t) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (t instanceof QueryException) {
+            throw (QueryException) t;
+        } else if (t instanceof UnsupportedOperationException) {
+            throw (UnsupportedOperationException) t;
+        } else if (t instanceof IllegalArgumentException) {
+            throw (IllegalArgumentException) t;
+        }
+
+        FastLogger.logStatic(LogLevel.SEVERE, "An internal error occurred.\n%s", t);
+        return new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+    }
+
+    // Other clients can change the schema, so we have to ask. It's a single tiny
+    // read, so it skips the permits and may be answered by any node.
+    @Override
+    protected long schemaVersion() throws QueryException {
+        JsonArray statement = new JsonArray().add(toStatement("SELECT schema_version FROM pragma_schema_version", JsonArray.EMPTY_ARRAY));
+
+        try (Response res = this.send(statement, Endpoint.QUERY, ReadConsistency.NONE, false, this.queryTimeout_ms)) {
+            QueryResult result = toQueryResult(RQLiteResponse.read(res.body().charStream(), null, null), new Profiler());
+            return ((Number) result.rows().get(0)[0]).longValue();
+        } catch (QueryException e) {
+            throw e;
+        } catch (InterruptedIOException e) {
+            throw notInTime(Phase.STATEMENT_EXECUTION);
+        } catch (Throwable t) {
+            FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst reading the schema version.\n%s", t);
+            throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, "An error occurred whilst reading the schema version.");
         }
     }
 
-    @SneakyThrows
     @Override
-    public @NonNull List<String> listTables() {
-        return this.query(
-            new MarshallingContext(),
-            "SELECT name FROM sqlite_schema WHERE type IN ('table','view') AND name NOT LIKE 'sqlite_%' ORDER BY 1;",
-            JsonArray.EMPTY_ARRAY
-        )
-            .rows()
-            .parallelStream()
-            .map((m) -> m.get("name").getAsString())
-            .toList();
+    public int queueDepth() {
+        return this.permits.getQueueLength();
     }
 
     @Override
     public void close() throws IOException {
         if (this.isClosed) return;
         this.isClosed = true;
+
+        this.client.connectionPool().evictAll();
     }
 
-    @JsonClass(exposeAll = true)
     private static final class RQLiteResponse {
-        private List<RQLiteResult> results;
+        private @Nullable String error;
+        private List<RQLiteResult> results = new ArrayList<>();
+
+        // {"results": [{"columns": [...], "types": [...], "values": [[...], ...]}, ...]}
+        // Only the first result may go to the sink, that's all a single query has. The
+        // budget covers every result in the response.
+        private static RQLiteResponse read(Reader in, @Nullable RowSink sink, @Nullable ResultBudget budget) throws IOException, QueryException {
+            JsonStreamReader reader = new JsonStreamReader(in);
+            RQLiteResponse response = new RQLiteResponse();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "results":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            response.results.add(RQLiteResult.read(reader, response.results.isEmpty() ? sink : null, budget));
+                        }
+                        reader.endArray();
+                        break;
+
+                    case "error":
+                        response.error = nextStringOrNull(reader);
+                        break;
+
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            return response;
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    private static enum Endpoint {
+        QUERY("/db/query"),
+        EXECUTE("/db/execute"),
+        REQUEST("/db/request"),
+        ;
+
+        private final String path;
     }
 
     private static final class RQLiteResult {
-        private static final TypeToken<Map<String, JsonElement>> ROW_TT = new TypeToken<>() {
-        };
+        private @Nullable String error;
+        private List<String> columns = Collections.emptyList();
+        private List<String> types = Collections.emptyList();
+        private List<Object[]> values = new ArrayList<>();
+        private boolean truncated = false;
+
+        private static RQLiteResult read(JsonStreamReader reader, @Nullable RowSink sink, @Nullable ResultBudget budget) throws IOException, QueryException {
+            RQLiteResult result = new RQLiteResult();
+            boolean sentColumns = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "error":
+                        result.error = nextStringOrNull(reader);
+                        break;
 
-        private List<Map<String, JsonElement>> rows = new LinkedList<>();
+                    case "columns":
+                        result.columns = readStringList(reader);
+                        break;
 
-        @JsonDeserializationMethod("rows")
-        private void $deserialize_rows(JsonElement e) throws JsonValidationException, JsonParseException {
-            if (e.isJsonArray()) {
-                for (JsonElement row : e.getAsArray()) {
-                    this.rows.add(Rson.DEFAULT.fromJson(row, ROW_TT));
+                    case "types":
+                        result.types = readStringList(reader);
+                        break;
+
+                    case "values": {
+                        if (reader.peek() == Token.NULL) {
+                            reader.nextNull();
+                            break;
+                        }
+
+                        List<Object> cells = new ArrayList<>(result.columns.size());
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            cells.clear();
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                cells.add(readCell(reader));
+                            }
+                            reader.endArray();
+
+                            Object[] row = cells.toArray();
+                            if (sink != null) {
+                                // rqlite always writes columns before values.
+                                if (!sentColumns) {
+                                    sink.columns(result.columns, result.types);
+                                    sentColumns = true;
+                                }
+                                sink.row(row);
+                            } else if (budget == null || budget.admit(row)) {
+                                result.values.add(row);
+                            } else {
+                                // The rest still has to come off the wire, but none of it is kept.
+                                result.truncated = true;
+                            }
+                        }
+                        reader.endArray();
+                        break;
+                    }
+
+                    default:
+                        reader.skipValue();
+                        break;
                 }
             }
+            reader.endObject();
+
+            // A result without any rows still needs its columns.
+            if (sink != null && !sentColumns && result.error == null && !result.columns.isEmpty()) {
+                sink.columns(result.columns, result.types);
+            }
+
+            return result;
+        }
+
+        // Mirrors what the SQLite driver would hand back.
+        private static Object readCell(JsonStreamReader reader) throws IOException {
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    return null;
+
+                case STRING:
+                    return reader.nextString();
+
+                case NUMBER:
+                    return reader.nextNumber();
+
+                case BOOLEAN:
+                    return reader.nextBoolean() ? 1 : 0;
+
+                case BEGIN_ARRAY: {
+                    // We ask for BLOBs as arrays of unsigned bytes.
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        bytes.write(reader.nextNumber().intValue());
+                    }
+                    reader.endArray();
+                    return bytes.toByteArray();
+                }
+
+                default:
+                    // rqlite never sends these.
+                    reader.skipValue();
+                    return null;
+            }
+        }
+
+        private QueryResult toQueryResult(Profiler profiler) {
+            return new QueryResult(this.columns, this.types, this.values, profiler, this.truncated);
+        }
+
+        private static List<String> readStringList(JsonStreamReader reader) throws IOException {
+            List<String> list = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                list.add(nextStringOrNull(reader));
+            }
+            reader.endArray();
+            return list;
         }
 
     }
@@ -0,0 +1,425 @@
+package co.casterlabs.dbohttp.database.impl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.dbohttp.database.ResultBudget;
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonObject;
+
+// Results of read-only statements, keyed by SQL and parameters. Every entry
+// knows which tables it read from (found via EXPLAIN) so that a commit only has
+// to drop the entries for the tables it touched. The generation counter stops
+// a read that raced with a commit from putting a stale result back in.
+class ResultCache {
+    // SQLite's built-in functions whose result can change between two runs of the
+    // same statement. The date and time functions are only deterministic when no
+    // argument is 'now', which a column can hold too, so they're all out.
+    private static final Set<String> NON_DETERMINISTIC_FUNCTIONS = Set.of(
+        "random",
+        "randomblob",
+        "changes",
+        "total_changes",
+        "last_insert_rowid",
+        "date",
+        "time",
+        "datetime",
+        "julianday",
+        "unixepoch",
+        "strftime",
+        "timediff"
+    );
+
+    // Keywords, used without parentheses.
+    private static final Set<String> NON_DETERMINISTIC_VALUES = Set.of(
+        "current_date",
+        "current_time",
+        "current_timestamp"
+    );
+
+    // Not synchronized so that virtual threads never pin a carrier waiting on it.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    private final Map<String, Set<String>> keysByTable = new HashMap<>();
+    private final Map<String, Set<String>> tablesBySql = new HashMap<>(); // Set is empty when the statement can't be cached.
+    private final Map<String, Boolean> unseenWritesBySql = new HashMap<>();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl_ns;
+
+    private volatile long generation = 0;
+    private long bytes = 0;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    ResultCache(int maxEntries, long maxBytes, long ttl_ns) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl_ns = ttl_ns;
+    }
+
+    static String keyOf(String sql, JsonArray parameters) {
+        return sql + '\0' + parameters.toString(false);
+    }
+
+    // Goes through the statement token by token, so that names only count where
+    // they're actually used (not inside of strings, comments or other names).
+    static boolean isCacheable(String sql) {
+        int len = sql.length();
+        int idx = 0;
+        boolean first = true;
+
+        while (idx < len) {
+            char c = sql.charAt(idx);
+
+            if (Character.isWhitespace(c)) {
+                idx++;
+                continue;
+            }
+            if (isCommentAt(sql, idx)) {
+                idx = skipComment(sql, idx);
+                continue;
+            }
+            if (c == '\'') {
+                idx = skipQuoted(sql, idx, '\'');
+                first = false;
+                continue;
+            }
+
+            String name;
+            boolean quoted = c == '"' || c == '`' || c == '[';
+            if (quoted) {
+                int end = skipQuoted(sql, idx, c == '[' ? ']' : c);
+                name = sql.substring(idx + 1, Math.max(idx + 1, end - 1));
+                idx = end;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                int start = idx;
+                while (idx < len && (Character.isLetterOrDigit(sql.charAt(idx)) || sql.charAt(idx) == '_' || sql.charAt(idx) == '$')) {
+                    idx++;
+                }
+                name = sql.substring(start, idx);
+            } else {
+                idx++;
+                first = false;
+                continue;
+            }
+
+            name = name.toLowerCase();
+            if (first && name.equals("explain")) return false;
+            first = false;
+
+            if (!quoted && NON_DETERMINISTIC_VALUES.contains(name)) return false;
+            if (NON_DETERMINISTIC_FUNCTIONS.contains(name) && isCallAt(sql, idx)) return false;
+        }
+        return true;
+    }
+
+    // Whether the next token is an opening parenthesis.
+    private static boolean isCallAt(String sql, int idx) {
+        while (idx < sql.length()) {
+            if (Character.isWhitespace(sql.charAt(idx))) {
+                idx++;
+            } else if (isCommentAt(sql, idx)) {
+                idx = skipComment(sql, idx);
+            } else {
+                return sql.charAt(idx) == '(';
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCommentAt(String sql, int idx) {
+        return sql.startsWith("--", idx) || sql.startsWith("/*", idx);
+    }
+
+    private static int skipComment(String sql, int idx) {
+        int end = sql.startsWith("--", idx) ? sql.indexOf('\n', idx) : sql.indexOf("*/", idx + 2);
+        if (end == -1) return sql.length();
+        return sql.startsWith("--", idx) ? end + 1 : end + 2;
+    }
+
+    // Returns the index just past the closing quote, a doubled quote is an escape.
+    private static int skipQuoted(String sql, int idx, char close) {
+        idx++;
+        while (idx < sql.length()) {
+            if (sql.charAt(idx++) == close) {
+                if (close != ']' && idx < sql.length() && sql.charAt(idx) == close) {
+                    idx++;
+                    continue;
+                }
+                return idx;
+            }
+        }
+        return idx;
+    }
+
+    long generation() {
+        return this.generation;
+    }
+
+    @Nullable Entry get(String key) {
+        this.lock.lock();
+        try {
+            Entry entry = this.entries.get(key);
+
+            if (entry != null && System.nanoTime() > entry.expiresAt_ns) {
+                this.remove(key);
+                entry = null;
+            }
+
+            if (entry == null) {
+                this.misses.increment();
+            } else {
+                this.hits.increment();
+            }
+            return entry;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Does nothing if anything was invalidated since `generation` was read.
+    void put(String key, Set<String> tables, List<String> columns, List<String> types, List<Object[]> rows, long generation) {
+        this.lock.lock();
+        try {
+            if (generation != this.generation || tables.isEmpty()) return;
+
+            long size = estimateSize(key, columns, rows);
+            if (size > this.maxBytes) return;
+
+            this.remove(key);
+
+            Entry entry = new Entry(columns, types, rows, tables, size, System.nanoTime() + this.ttl_ns);
+            this.entries.put(key, entry);
+            this.bytes += size;
+            for (String table : tables) {
+                this.keysByTable.computeIfAbsent(table, (t) -> new HashSet<>()).add(key);
+            }
+
+            // Evict the least recently used until we're within bounds again.
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            while ((this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                it.remove();
+                this.forget(eldest.getKey(), eldest.getValue());
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void invalidate(Collection<String> tables) {
+        this.lock.lock();
+        try {
+            this.generation++;
+
+            for (String table : tables) {
+                Set<String> keys = this.keysByTable.remove(table);
+                if (keys == null) continue;
+
+                for (String key : keys) {
+                    this.remove(key);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void invalidateAll() {
+        this.lock.lock();
+        try {
+            this.generation++;
+            this.entries.clear();
+            this.keysByTable.clear();
+            this.tablesBySql.clear(); // The schema may have changed.
+            this.unseenWritesBySql.clear();
+            this.bytes = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // The tables read by a statement, empty if it shouldn't be cached (e.g it
+    // reads a virtual, temporary or attached table). Must be called on a
+    // connection we own.
+    Set<String> tablesRead(Connection conn, String sql) throws SQLException {
+        this.lock.lock();
+        try {
+            Set<String> known = this.tablesBySql.get(sql);
+            if (known != null) return known;
+        } finally {
+            this.lock.unlock();
+        }
+
+        Set<Integer> rootPages = new HashSet<>();
+        boolean cacheable = true;
+
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+                while (rs.next()) {
+                    String opcode = rs.getString(2);
+
+                    if (opcode.equals("VOpen") || opcode.equals("OpenWrite")) {
+                        cacheable = false;
+                    } else if (opcode.equals("OpenRead") || opcode.equals("ReopenIdx")) {
+                        if (rs.getInt(5) != 0) cacheable = false; // Not the main database.
+                        rootPages.add(rs.getInt(4));
+                    }
+                }
+            }
+
+            Set<String> tables = new HashSet<>();
+            if (cacheable && !rootPages.isEmpty()) {
+                try (ResultSet rs = statement.executeQuery("SELECT rootpage, tbl_name FROM sqlite_schema WHERE rootpage > 0")) {
+                    while (rs.next()) {
+                        if (rootPages.remove(rs.getInt(1))) {
+                            tables.add(rs.getString(2));
+                        }
+                    }
+                }
+
+                if (rootPages.remove(1)) {
+                    tables.add("sqlite_schema");
+                }
+                if (!rootPages.isEmpty()) {
+                    tables.clear(); // Something we can't account for.
+                }
+            }
+
+            this.lock.lock();
+            try {
+                this.tablesBySql.put(sql, tables);
+                if (this.tablesBySql.size() > this.maxEntries * 4) {
+                    this.tablesBySql.clear(); // Plenty of room to be lazy here.
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            return tables;
+        }
+    }
+
+    // Whether the statement may change tables that the update hook won't tell us
+    // about. The hook never fires for WITHOUT ROWID tables, and triggers (or
+    // foreign key actions, which SQLite runs the same way) can reach one from a
+    // write to any other table. Must be called on a connection we own.
+    boolean mayWriteUnseen(Connection conn, String sql) {
+        this.lock.lock();
+        try {
+            Boolean known = this.unseenWritesBySql.get(sql);
+            if (known != null) return known;
+        } finally {
+            this.lock.unlock();
+        }
+
+        boolean unseen = false;
+        Set<Integer> rootPages = new HashSet<>();
+
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+                while (rs.next()) {
+                    String opcode = rs.getString(2);
+
+                    if (opcode.equals("Program")) {
+                        unseen = true; // A trigger or foreign key action.
+                    } else if (opcode.equals("OpenWrite") && rs.getInt(5) == 0) {
+                        rootPages.add(rs.getInt(4));
+                    }
+                }
+            }
+
+            if (!unseen && !rootPages.isEmpty()) {
+                try (ResultSet rs = statement.executeQuery("SELECT m.rootpage FROM sqlite_schema m JOIN pragma_table_list t ON t.schema = 'main' AND t.name = m.tbl_name WHERE t.wr AND m.rootpage > 0")) {
+                    while (rs.next()) {
+                        if (rootPages.contains(rs.getInt(1))) {
+                            unseen = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            unseen = true; // Can't tell, so assume the worst.
+        }
+
+        this.lock.lock();
+        try {
+            this.unseenWritesBySql.put(sql, unseen);
+            if (this.unseenWritesBySql.size() > this.maxEntries * 4) {
+                this.unseenWritesBySql.clear();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return unseen;
+    }
+
+    JsonObject report() {
+        this.lock.lock();
+        try {
+            long hits = this.hits.sum();
+            long lookups = hits + this.misses.sum();
+
+            return new JsonObject()
+                .put("entries", this.entries.size())
+                .put("bytes", this.bytes)
+                .put("hits", hits)
+                .put("misses", this.misses.sum())
+                .put("hitRatio", lookups == 0 ? -1 : hits / (double) lookups);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void remove(String key) {
+        this.forget(key, this.entries.remove(key));
+    }
+
+    private void forget(String key, @Nullable Entry entry) {
+        if (entry == null) return;
+        this.bytes -= entry.bytes;
+
+        for (String table : entry.tables) {
+            Set<String> keys = this.keysByTable.get(table);
+            if (keys == null) continue;
+
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                this.keysByTable.remove(table);
+            }
+        }
+    }
+
+    // Rough, but close enough to keep the cache within its budget.
+    private static long estimateSize(String key, List<String> columns, List<Object[]> rows) {
+        long size = 128 + key.length() * 2L + columns.size() * 64L;
+
+        for (Object[] row : rows) {
+            size += ResultBudget.estimateSize(row);
+        }
+
+        return size;
+    }
+
+    static record Entry(List<String> columns, List<String> types, List<Object[]> rows, Set<String> tables, long bytes, long expiresAt_ns) {
+    }
+
+}
@@ -7,49 +7,187 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+import org.sqlite.ProgressHandler;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConnection;
 
 import co.casterlabs.dbohttp.config.DatabaseConfig;
+import co.casterlabs.dbohttp.database.BatchResult;
+import co.casterlabs.dbohttp.database.BatchResult.BatchMode;
+import co.casterlabs.dbohttp.database.BatchResult.StatementResult;
+import co.casterlabs.dbohttp.database.BatchStatement;
 import co.casterlabs.dbohttp.database.Database;
 import co.casterlabs.dbohttp.database.QueryException;
 import co.casterlabs.dbohttp.database.QueryException.QueryErrorCode;
 import co.casterlabs.dbohttp.database.QueryResult;
-import co.casterlabs.dbohttp.database.QueryStat;
+import co.casterlabs.dbohttp.database.ResultBudget;
+import co.casterlabs.dbohttp.database.RowSink;
+import co.casterlabs.dbohttp.database.impl.StatementCache.CachedStatement;
 import co.casterlabs.dbohttp.util.MarshallingContext;
 import co.casterlabs.dbohttp.util.Profiler;
+import co.casterlabs.dbohttp.util.Profiler.Phase;
 import co.casterlabs.rakurai.json.element.JsonArray;
-import co.casterlabs.rakurai.json.element.JsonElement;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import lombok.NonNull;
-import lombok.SneakyThrows;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 import xyz.e3ndr.fastloggingframework.logging.LogLevel;
 
 public class SQLiteDatabase extends Database {
+    private static final int SQLITE_READONLY = 8;
+    private static final int SQLITE_INTERRUPT = 9;
+
+    // How many VM instructions SQLite runs between deadline checks.
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private final long accessTimeout_ms;
+    private final int maxQueued;
+    private final long queryTimeout_ms;
+    private final long maxResultRows;
+    private final long maxResultBytes;
+
     private final Semaphore concurrentAccessLock = new Semaphore(1);
     private Connection conn;
+    private StatementCache connStatements;
+
+    // Only present when the read pool is enabled, one permit per connection.
+    private final @Nullable Semaphore readAccessLock;
+    private final Queue<StatementCache> readConns = new ConcurrentLinkedQueue<>();
+    private final int readConnsCount;
+
+    private final @Nullable GroupCommitter groupCommitter;
+
+    // Only present when the result cache is enabled. The rest is filled in by the
+    // writer's update hook and only touched whilst holding concurrentAccessLock.
+    private final @Nullable ResultCache resultCache;
+    private final Set<String> pendingTables = new HashSet<>();
+    private long updateEvents = 0;
+    private boolean pendingUnknownWrite = false;
+
+    // Kept up to date by the writer so that schema() never has to queue for it.
+    // Changes made to the file by anything other than us go unnoticed.
+    private volatile long schemaVersion;
+    private boolean pendingSchemaChange = false;
+
+    // Read statements currently running, keyed the same way as the result cache.
+    private final @Nullable Map<String, CompletableFuture<QueryResult>> inFlight;
 
     public SQLiteDatabase(DatabaseConfig config) throws SQLException {
         super();
 
-        this.conn = DriverManager.getConnection("jdbc:sqlite:" + config.connectionString);
-        this.conn.setAutoCommit(false);
+        this.accessTimeout_ms = TimeUnit.SECONDS.toMillis(config.accessTimeoutSeconds);
+        this.maxQueued = config.maxQueuedQueries;
+        this.queryTimeout_ms = config.queryTimeoutMillis;
+        this.maxResultRows = config.maxResultRows;
+        this.maxResultBytes = config.maxResultBytes;
+
+        String url = "jdbc:sqlite:" + config.connectionString;
+
+        if (config.readConnections > 0) {
+            // WAL allows readers to run alongside the writer (and each other).
+            SQLiteConfig writeConfig = new SQLiteConfig();
+            writeConfig.setJournalMode(JournalMode.WAL);
+            this.conn = writeConfig.createConnection(url);
+            this.conn.setAutoCommit(false);
+
+            SQLiteConfig readConfig = new SQLiteConfig();
+            readConfig.setReadOnly(true);
+            for (int i = 0; i < config.readConnections; i++) {
+                // Readers stay in auto-commit so that they never pin an old snapshot.
+                this.readConns.add(this.wrap(readConfig.createConnection(url), config));
+            }
+
+            this.readConnsCount = config.readConnections;
+            this.readAccessLock = new Semaphore(this.readConnsCount);
+        } else {
+            this.conn = DriverManager.getConnection(url);
+            this.conn.setAutoCommit(false);
+
+            this.readConnsCount = 0;
+            this.readAccessLock = null;
+        }
+
+        this.connStatements = this.wrap(this.conn, config);
+
+        this.schemaVersion = readSchemaVersion(this.conn);
+        this.conn.commit(); // Don't sit on the snapshot we just read.
+
+        if (config.resultCacheSize > 0) {
+            this.resultCache = new ResultCache(config.resultCacheSize, config.resultCacheMaxBytes, TimeUnit.SECONDS.toNanos(config.resultCacheTtlSeconds));
+
+            ((SQLiteConnection) this.conn).addUpdateListener((type, database, table, rowId) -> {
+                this.updateEvents++;
+                if ("main".equals(database)) {
+                    this.pendingTables.add(table);
+                }
+            });
+        } else {
+            this.resultCache = null;
+        }
+
+        this.inFlight = config.coalesceReads ? new ConcurrentHashMap<>() : null;
+
+        if (config.groupCommitWindowMillis > 0) {
+            this.groupCommitter = new GroupCommitter(TimeUnit.MILLISECONDS.toNanos(config.groupCommitWindowMillis), Math.max(1, config.groupCommitMaxStatements));
+            this.groupCommitter.thread.start();
+        } else {
+            this.groupCommitter = null;
+        }
     }
 
-    private PreparedStatement prepare(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+    private StatementCache wrap(Connection conn, DatabaseConfig config) throws SQLException {
+        StatementCache statements = new StatementCache(conn, config.statementCacheSize, this.statementCacheHits, this.statementCacheMisses);
+
+        // Runs on whichever thread is stepping the statement, a non-zero return
+        // interrupts it with SQLITE_INTERRUPT.
+        ProgressHandler.setHandler(conn, PROGRESS_INTERVAL, new ProgressHandler() {
+            @Override
+            protected int progress() {
+                long deadline_ns = statements.deadline_ns;
+                return deadline_ns != 0 && System.nanoTime() - deadline_ns > 0 ? 1 : 0;
+            }
+        });
+
+        return statements;
+    }
+
+    private CachedStatement prepare(@NonNull StatementCache statements, @NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        CachedStatement cached = null;
+
         try {
-            PreparedStatement prepared = this.conn.prepareStatement(query);
+            cached = statements.acquire(query);
+            PreparedStatement prepared = cached.statement();
 
-            if (prepared.getParameterMetaData().getParameterCount() != parameters.size()) {
+            if (cached.parameterCount() != parameters.size()) {
                 throw new QueryException(
                     QueryErrorCode.PREPARATION_ERROR,
                     String.format(
                         "An incorrect amount of parameters were specified. Expected %d got %d.",
-                        prepared.getParameterMetaData().getParameterCount(), parameters.size()
+                        cached.parameterCount(), parameters.size()
                     )
                 );
             }
@@ -65,8 +203,17 @@ public class SQLiteDatabase extends Database {
                 prepared.setObject(idx + 1, obj);
             }
 
-            return prepared;
+            return cached;
+        } catch (QueryException | RuntimeException e) {
+            if (cached != null) {
+                statements.release(cached, true);
+            }
+            throw e;
         } catch (SQLException e) {
+            if (cached != null) {
+                statements.release(cached, false);
+            }
+
             checkForSpecificError(e);
             FastLogger.logStatic(LogLevel.SEVERE, "Error whilst preparing statement.\n%s", e);
             throw new QueryException(QueryErrorCode.PREPARATION_ERROR, "Error whilst preparing statement.");
@@ -74,137 +221,427 @@ public class SQLiteDatabase extends Database {
     }
 
     @Override
-    public @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+    public @NonNull QueryResult query(@NonNull MarshallingContext context, @NonNull String query, @NonNull JsonArray parameters, @Nullable RowSink sink) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
         if (this.isClosed) {
             throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
         }
 
         Profiler profiler = new Profiler();
+        boolean wasSuccessful = false;
+
+        try {
+            // Only deterministic reads may be handed to more than one caller.
+            String sharedKey = null;
+            if (sink == null && (this.resultCache != null || this.inFlight != null) && !ResultBudget.isCustom(context) && isReadStatement(query) && ResultCache.isCacheable(query)) {
+                sharedKey = ResultCache.keyOf(query, parameters);
+            }
+
+            // Hits never touch a connection, so they skip the queue entirely.
+            long cacheGeneration = 0;
+            if (this.resultCache != null && sharedKey != null) {
+                profiler.begin(Phase.RESULT_CACHE_LOOKUP);
+                ResultCache.Entry cached = this.resultCache.get(sharedKey);
+                profiler.end();
+
+                if (cached != null) {
+                    wasSuccessful = true;
+                    return new QueryResult(cached.columns(), cached.types(), cached.rows(), profiler /* mutable */);
+                }
+
+                cacheGeneration = this.resultCache.generation();
+            }
+
+            String cacheKey = this.resultCache == null ? null : sharedKey;
+            QueryResult result;
+
+            // A request with its own timeout could fail everyone waiting on it with
+            // TIMED_OUT, so it always runs by itself.
+            if (this.inFlight != null && sharedKey != null && context.timeoutMillis <= 0) {
+                result = this.runCoalesced(sharedKey, profiler, context, query, parameters, cacheKey, cacheGeneration);
+            } else {
+                result = this.run(profiler, context, query, parameters, sink, cacheKey, cacheGeneration);
+            }
+
+            wasSuccessful = true;
+            return result;
+        } finally {
+            this.recordStats(profiler, wasSuccessful, 1);
+        }
+    }
+
+    // The first caller runs the statement, anyone who shows up whilst it's still
+    // running just waits for the result.
+    private QueryResult runCoalesced(String key, Profiler profiler, MarshallingContext context, String query, JsonArray parameters, @Nullable String cacheKey, long cacheGeneration) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        CompletableFuture<QueryResult> execution = new CompletableFuture<>();
+        CompletableFuture<QueryResult> running = this.inFlight.putIfAbsent(key, execution);
 
-        profiler.start("Access Lock Acquisition", () -> {
+        if (running != null) {
+            // No longer than we'd have taken ourselves, waiting our turn and then running.
+            long timeout_ms = timeoutOf(context, this.queryTimeout_ms);
+            long start_ns = System.nanoTime();
             try {
-                this.concurrentAccessLock.acquire();
-            } catch (InterruptedException ignored) {
+                QueryResult shared = timeout_ms > 0 ? running.get(this.accessTimeout_ms + timeout_ms, TimeUnit.MILLISECONDS) : running.get();
+                return new QueryResult(shared.columns(), shared.types(), shared.rows(), profiler /* mutable */);
+            } catch (ExecutionException e) {
+                // Running out of time or being turned away happened to the leader, not to
+                // us. Anything else (a bad statement, etc) would happen to us too.
+                if (!isLeaderOnly(e.getCause())) {
+                    throw rethrow(e.getCause());
+                }
+            } catch (TimeoutException e) {
+                throw new QueryException(QueryErrorCode.TIMED_OUT, String.format("Query ran past its %dms timeout whilst waiting on an identical query.", timeout_ms));
+            } catch (InterruptedException e) {
                 throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+            } finally {
+                profiler.log(Phase.COALESCED_QUERY_WAIT, (System.nanoTime() - start_ns) / 1000000d);
             }
-        });
 
-        PreparedStatement statement = null;
-        boolean dirty = false;
+            return this.run(profiler, context, query, parameters, null, cacheKey, cacheGeneration);
+        }
+
+        try {
+            QueryResult result = this.run(profiler, context, query, parameters, null, cacheKey, cacheGeneration);
+            execution.complete(result);
+            return result;
+        } catch (Throwable t) {
+            execution.completeExceptionally(t);
+            throw rethrow(t);
+        } finally {
+            this.inFlight.remove(key, execution);
+        }
+    }
+
+    private QueryResult run(Profiler profiler, MarshallingContext context, String query, JsonArray parameters, @Nullable RowSink sink, @Nullable String cacheKey, long cacheGeneration) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (this.readAccessLock != null && isReadStatement(query)) {
+            try {
+                return this.query(false, profiler, context, query, parameters, sink, cacheKey, cacheGeneration);
+            } catch (ReadOnlyViolationException e) {
+                // SQLite refused to run it on a read-only connection, so it must write.
+                // Fall through to the writer.
+            }
+        }
+
+        if (this.groupCommitter != null && sink == null && !isReadStatement(query)) {
+            return this.groupCommitter.submit(profiler, context, query, parameters);
+        } else {
+            return this.query(true, profiler, context, query, parameters, sink, cacheKey, cacheGeneration);
+        }
+    }
+
+    private QueryResult query(boolean isWriter, Profiler profiler, MarshallingContext context, String query, JsonArray parameters, @Nullable RowSink sink, @Nullable String cacheKey, long cacheGeneration) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        Semaphore lock = isWriter ? this.concurrentAccessLock : this.readAccessLock;
+        acquire(lock, profiler);
+
+        // Every reader permit is backed by a connection sitting in the queue.
+        StatementCache statements = isWriter ? this.connStatements : this.readConns.poll();
+
+        try {
+            ResultBudget budget = sink == null ? this.budgetOf(context) : null;
+            QueryResult result = this.execute(statements, isWriter, profiler, context, query, parameters, sink, budget);
+
+            // Only cache it if it really didn't write anything.
+            if (cacheKey != null && !result.truncated() && (!isWriter || (this.pendingTables.isEmpty() && !this.pendingUnknownWrite))) {
+                profiler.begin(Phase.RESULT_CACHE_FILL);
+                Set<String> tables = this.resultCache.tablesRead(statements.conn, query);
+                this.resultCache.put(cacheKey, tables, result.columns(), result.types(), result.rows(), cacheGeneration);
+                profiler.end();
+            }
+
+            if (isWriter) {
+                long schemaVersion = this.schemaVersionBeforeCommit(statements.conn);
+                profiler.begin(Phase.DATABASE_COMMIT);
+                statements.conn.commit();
+                profiler.end();
+                this.schemaVersion = schemaVersion;
+                this.invalidateResults();
+            }
+
+            return result;
+        } catch (Throwable t) {
+            if (isWriter) {
+                rollback(statements.conn, profiler);
+            }
+
+            throw rethrow(t);
+        } finally {
+            if (!isWriter) {
+                this.readConns.add(statements);
+            }
+            lock.release();
+        }
+    }
+
+    @Override
+    public @NonNull BatchResult batch(@NonNull MarshallingContext context, @NonNull List<BatchStatement> statements, @NonNull BatchMode mode) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (this.isClosed) {
+            throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
+        }
+
+        Profiler profiler = new Profiler();
         boolean wasSuccessful = false;
 
+        acquire(this.concurrentAccessLock, profiler);
+
+        try {
+            List<StatementResult> results = new ArrayList<>(statements.size());
+            ResultBudget budget = this.budgetOf(context); // Shared by the whole batch.
+
+            for (int idx = 0; idx < statements.size(); idx++) {
+                BatchStatement statement = statements.get(idx);
+                Profiler statementProfiler = new Profiler();
+
+                if (mode == BatchMode.ATOMIC) {
+                    try {
+                        QueryResult result = this.execute(this.connStatements, true, statementProfiler, context, statement.sql(), statement.params(), null, budget);
+                        results.add(new StatementResult(result, null));
+                    } catch (QueryException e) {
+                        throw new QueryException(e.code, String.format("Statement #%d: %s", idx, e.getMessage()));
+                    } catch (UnsupportedOperationException e) {
+                        throw new UnsupportedOperationException(String.format("Statement #%d: %s", idx, e.getMessage()));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(String.format("Statement #%d: %s", idx, e.getMessage()));
+                    }
+                    continue;
+                }
+
+                // A savepoint lets us undo just this statement.
+                Savepoint savepoint = this.conn.setSavepoint();
+                try {
+                    QueryResult result = this.execute(this.connStatements, true, statementProfiler, context, statement.sql(), statement.params(), null, budget);
+                    this.conn.releaseSavepoint(savepoint);
+                    results.add(new StatementResult(result, null));
+                } catch (QueryException | UnsupportedOperationException | IllegalArgumentException e) {
+                    if (isTimeout(e)) {
+                        // SQLite took the statements before it down too.
+                        throw new QueryException(QueryErrorCode.TIMED_OUT, String.format("Statement #%d: %s", idx, e.getMessage()));
+                    }
+
+                    this.conn.rollback(savepoint);
+                    this.conn.releaseSavepoint(savepoint);
+                    results.add(new StatementResult(null, e));
+                }
+            }
+
+            long schemaVersion = this.schemaVersionBeforeCommit(this.conn);
+            profiler.begin(Phase.DATABASE_COMMIT);
+            this.conn.commit();
+            profiler.end();
+            this.schemaVersion = schemaVersion;
+            this.invalidateResults();
+            wasSuccessful = true;
+
+            return new BatchResult(results, profiler /* mutable */);
+        } catch (Throwable t) {
+            rollback(this.conn, profiler);
+            throw rethrow(t);
+        } finally {
+            this.concurrentAccessLock.release();
+
+            this.recordStats(profiler, wasSuccessful, statements.size());
+        }
+    }
+
+    private ResultBudget budgetOf(MarshallingContext context) {
+        return ResultBudget.of(context, this.maxResultRows, this.maxResultBytes);
+    }
+
+    // Runs a single statement on a connection we already own. Committing (or
+    // rolling back) is left up to the caller. Rows that go to a sink aren't held,
+    // so only collected rows are counted against the budget.
+    private QueryResult execute(StatementCache statements, boolean isWriter, Profiler profiler, MarshallingContext context, String query, JsonArray parameters, @Nullable RowSink sink, @Nullable ResultBudget budget) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        CachedStatement statement = null;
+        boolean reusable = false;
+
+        long timeout_ms = timeoutOf(context, this.queryTimeout_ms);
+        statements.deadline_ns = timeout_ms > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms) : 0;
+
+        // SQLite can't check the deadline whilst we're blocked in the sink.
+        if (sink != null) {
+            sink.deadline(statements.deadline_ns);
+        }
+
         try {
-            statement = profiler.start("Statement Preparation", () -> this.prepare(context, query, parameters));
+            profiler.begin(Phase.STATEMENT_PREPARATION);
+            statement = this.prepare(statements, context, query, parameters);
+            profiler.end();
+
             ResultSet resultSet = null;
 
             try {
-                PreparedStatement $statement_ptr = statement;
-                boolean hasResult = profiler.start("Statement Execution", () -> $statement_ptr.execute());
-                dirty = true;
+                PreparedStatement prepared = statement.statement();
+                long updateEvents = this.updateEvents;
+
+                if (isWriter && !isReadStatement(query)) {
+                    this.pendingSchemaChange = true;
+                }
+
+                // The hook only sees some of what a write can do, see mayWriteUnseen().
+                if (isWriter && this.resultCache != null && this.resultCache.mayWriteUnseen(statements.conn, query)) {
+                    this.pendingUnknownWrite = true;
+                }
+
+                profiler.begin(Phase.STATEMENT_EXECUTION);
+                boolean hasResult = prepared.execute();
+                profiler.end();
+
+                // Writes the update hook can't see (DDL, DELETE without a WHERE, etc) mean
+                // we don't know what changed.
+                if (isWriter && this.resultCache != null && this.updateEvents == updateEvents) {
+                    if (!isReadStatement(query) || prepared.getUpdateCount() > 0) {
+                        this.pendingUnknownWrite = true;
+                    }
+                }
 
                 if (hasResult) {
-                    resultSet = profiler.start("Result Gathering", () -> $statement_ptr.getResultSet());
+                    profiler.begin(Phase.RESULT_GATHERING);
+                    resultSet = prepared.getResultSet();
+                    profiler.end();
                 }
             } catch (Throwable e) {
+                if (!isWriter && e instanceof SQLException && ((SQLException) e).getErrorCode() == SQLITE_READONLY) {
+                    throw new ReadOnlyViolationException();
+                }
+
+                checkForTimeout(e, profiler, timeout_ms);
                 checkForSpecificError(e);
                 FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst executing query.\n%s", e);
                 throw new QueryException(QueryErrorCode.FAILED_TO_EXECUTE, "An error occurred whilst executing query.");
             }
 
             ResultSetMetaData metadata = resultSet == null ? null : resultSet.getMetaData();
-            List<Map<String, JsonElement>> rows = new LinkedList<>();
+            List<String> columns = Collections.emptyList();
+            List<String> types = Collections.emptyList();
+            List<Object[]> rows = new ArrayList<>();
+            boolean truncated = false;
 
             // We want to skip the row marshalling process if we can...
             if (metadata == null || metadata.getColumnCount() == 0) {
-                profiler.log("Result Marshalling", 0);
+                profiler.log(Phase.RESULT_MARSHALLING, 0);
             } else {
-                ResultSet $resultSet_ptr = resultSet;
-                profiler.start("Result Marshalling", () -> {
-                    // Get the column names.
-                    String[] columns = new String[metadata.getColumnCount()];
-                    for (int i = 0; i < columns.length; i++) {
-                        columns[i] = metadata.getColumnLabel(i + 1);
+                // Get the column names and their declared types.
+                int columnCount = metadata.getColumnCount();
+                columns = new ArrayList<>(columnCount);
+                types = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    columns.add(metadata.getColumnLabel(i));
+                    types.add(metadata.getColumnTypeName(i));
+                }
+
+                profiler.begin(Phase.RESULT_MARSHALLING);
+                if (sink != null) {
+                    sink.columns(columns, types);
+                }
+
+                while (resultSet.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = resultSet.getObject(i + 1);
                     }
 
-                    while ($resultSet_ptr.next()) {
-                        Map<String, JsonElement> row = new HashMap<>();
-                        for (String columnName : columns) {
-                            row.put(
-                                columnName,
-                                context.javaToJson($resultSet_ptr.getObject(columnName))
-                            );
-                        }
+                    if (sink != null) {
+                        sink.row(row);
+                    } else if (budget == null || budget.admit(row)) {
                         rows.add(row);
+                    } else {
+                        truncated = true;
+                        break; // Stop stepping, closing the result set resets the statement.
                     }
-                });
+                }
+                profiler.end();
             }
 
-//            FastLogger.logStatic(LogLevel.DEBUG, "Ran `%s` in %fms, rows returned: %d.", query, took, rows.size());
+            if (resultSet != null) {
+                resultSet.close(); // Resets the statement so that it can be reused.
+            }
 
-            profiler.start("Database Commit", () -> this.conn.commit());
-            wasSuccessful = true;
+//            FastLogger.logStatic(LogLevel.DEBUG, "Ran `%s` in %fms, rows returned: %d.", query, took, rows.size());
 
-            return new QueryResult(rows, profiler /* mutable */);
+            reusable = true;
+            return new QueryResult(columns, types, rows, profiler /* mutable */, truncated);
         } catch (Throwable t) {
-            if (dirty) {
-                try {
-                    profiler.start("Database Rollback", () -> this.conn.rollback());
-                } catch (Throwable e) {
-                    // Not possible... I think?
-                    FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst rolling back, the database may be busted!\n%s", e);
-                }
-            }
+            checkForTimeout(t, profiler, timeout_ms); // Stepping through the rows can time out too.
+            throw rethrow(t);
+        } finally {
+            statements.deadline_ns = 0;
 
-            if (t instanceof QueryException) {
-                throw (QueryException) t;
-            } else if (t instanceof UnsupportedOperationException) {
-                throw (UnsupportedOperationException) t;
-            } else if (t instanceof IllegalArgumentException) {
-                throw (IllegalArgumentException) t;
+            // The cache belongs to the connection, so it has to be handled before the
+            // caller gives up its permit.
+            profiler.begin(Phase.STATEMENT_CLEANUP);
+            if (statement != null) {
+                statements.release(statement, reusable);
             }
+            profiler.end();
+        }
+    }
 
-            FastLogger.logStatic(LogLevel.SEVERE, "An internal error occurred.\n%s", t);
-            throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
-        } finally {
-            this.concurrentAccessLock.release();
+    // Must be called once the writer's transaction is durable, whilst still
+    // holding concurrentAccessLock.
+    private void invalidateResults() {
+        if (this.resultCache == null) return;
 
-            PreparedStatement $statement_ptr = statement;
-            profiler.start("Statement Cleanup", () -> {
-                if ($statement_ptr != null) {
-                    try {
-                        $statement_ptr.close();
-                    } catch (SQLException e) {
-                        // Not possible... I think?
-                        FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst freeing statement, the database may be busted!\n%s", e);
-                    }
-                }
-            });
+        if (this.pendingUnknownWrite) {
+            this.resultCache.invalidateAll();
+        } else if (!this.pendingTables.isEmpty()) {
+            this.resultCache.invalidate(this.pendingTables);
+        }
+
+        this.pendingTables.clear();
+        this.pendingUnknownWrite = false;
+    }
+
+    // Must be called on the writer whilst its transaction is still open, since the
+    // driver begins the next one as soon as it commits. Only statements that
+    // aren't plain reads can change the schema, so only those are worth a look.
+    private long schemaVersionBeforeCommit(Connection conn) throws SQLException {
+        if (!this.pendingSchemaChange) return this.schemaVersion;
+
+        this.pendingSchemaChange = false;
+        return readSchemaVersion(conn);
+    }
 
-            this.stats.add(new QueryStat(System.nanoTime(), profiler.timeSpent_ms, wasSuccessful));
-            this.queriesTotal++;
+    private static long readSchemaVersion(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery("PRAGMA schema_version")) {
+            return rs.getLong(1);
         }
     }
 
     @Override
-    public JsonObject generateReport() {
+    protected long schemaVersion() {
+        return this.schemaVersion;
+    }
+
+    @Override
+    public int queueDepth() {
         int queued = this.concurrentAccessLock.getQueueLength();
 
-        return super.generateReport()
-            .put("queued", queued);
+        if (this.readAccessLock != null) {
+            queued += this.readAccessLock.getQueueLength();
+        }
+
+        if (this.groupCommitter != null) {
+            queued += this.groupCommitter.queue.size();
+        }
+
+        return queued;
     }
 
-    @SneakyThrows
     @Override
-    public @NonNull List<String> listTables() {
-        return this.query(
-            new MarshallingContext(),
-            "SELECT name FROM sqlite_schema WHERE type IN ('table','view') AND name NOT LIKE 'sqlite_%' ORDER BY 1;",
-            JsonArray.EMPTY_ARRAY
-        )
-            .rows()
-            .parallelStream()
-            .map((m) -> m.get("name").getAsString())
-            .toList();
+    public JsonObject generateReport() {
+        JsonObject report = super.generateReport()
+            .put("queued", this.queueDepth())
+            .put("readConnections", this.readConnsCount)
+            .put(
+                "statementCache",
+                new JsonObject()
+                    .put("hits", this.statementCacheHits.sum())
+                    .put("misses", this.statementCacheMisses.sum())
+            );
+
+        if (this.resultCache != null) {
+            report.put("resultCache", this.resultCache.report());
+        }
+
+        return report;
     }
 
     @Override
@@ -214,11 +651,17 @@ public class SQLiteDatabase extends Database {
         try {
             try {
                 this.isClosed = true;
+                if (this.groupCommitter != null) {
+                    this.groupCommitter.thread.join(); // Drains whatever is pending.
+                }
                 this.concurrentAccessLock.acquire(); // Wait for remaining queries to finish.
-                this.conn.close();
+                if (this.readAccessLock != null) {
+                    this.readAccessLock.acquire(this.readConnsCount);
+                }
+                this.closeConnections();
             } catch (InterruptedException e) {
                 Thread.interrupted(); // Clear.
-                this.conn.close(); // We want to close the database regardless.
+                this.closeConnections(); // We want to close the database regardless.
                 Thread.currentThread().interrupt();
             }
         } catch (SQLException e) {
@@ -228,6 +671,107 @@ public class SQLiteDatabase extends Database {
         }
     }
 
+    private void closeConnections() throws SQLException {
+        StatementCache reader;
+        while ((reader = this.readConns.poll()) != null) {
+            reader.clear();
+            reader.conn.close();
+        }
+
+        this.connStatements.clear();
+        this.conn.close();
+    }
+
+    // Anything that would only pile up behind a full queue is turned away
+    // straight away, everything else waits at most accessTimeoutSeconds.
+    private void acquire(Semaphore lock, Profiler profiler) throws QueryException {
+        if (this.maxQueued > 0 && lock.availablePermits() == 0 && lock.getQueueLength() >= this.maxQueued) {
+            throw new QueryException(QueryErrorCode.OVERLOADED, "Too many queries are waiting on the database.");
+        }
+
+        long start_ns = System.nanoTime();
+        try {
+            profiler.begin(Phase.ACCESS_LOCK_ACQUISITION);
+            try {
+                if (this.accessTimeout_ms <= 0) {
+                    lock.acquire();
+                } else if (!lock.tryAcquire(this.accessTimeout_ms, TimeUnit.MILLISECONDS)) {
+                    throw new QueryException(QueryErrorCode.OVERLOADED, "Timed out waiting for the database.");
+                }
+            } catch (InterruptedException ignored) {
+                throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+            }
+            profiler.end();
+        } finally {
+            this.queueWaitTimes.record((System.nanoTime() - start_ns) / 1000000d);
+        }
+    }
+
+    // Only ever used on the writer. Whatever the update hook saw is gone with the
+    // transaction, so it mustn't keep reads of those tables out of the cache.
+    private void rollback(Connection conn, Profiler profiler) {
+        this.pendingTables.clear();
+        this.pendingUnknownWrite = false;
+        this.pendingSchemaChange = false;
+
+        try {
+            profiler.begin(Phase.DATABASE_ROLLBACK);
+            conn.rollback();
+            profiler.end();
+        } catch (Throwable e) {
+            if (e instanceof SQLException && String.valueOf(e.getMessage()).contains("no transaction is active")) {
+                // SQLite already rolled back on its own (an interrupted write does this)
+                // but the driver doesn't know, so without a fresh transaction the next
+                // writes would quietly autocommit.
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("BEGIN");
+                    return;
+                } catch (SQLException e2) {
+                    e = e2;
+                }
+            }
+
+            // Not possible... I think?
+            FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst rolling back, the database may be busted!\n%s", e);
+        }
+    }
+
+    // Passes through the exceptions we expect, anything else becomes an internal
+    // error.
+    private static QueryException rethrow(Throwable t) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+        if (t instanceof QueryException) {
+            throw (QueryException) t;
+        } else if (t instanceof UnsupportedOperationException) {
+            throw (UnsupportedOperationException) t;
+        } else if (t instanceof IllegalArgumentException) {
+            throw (IllegalArgumentException) t;
+        } else if (t instanceof ReadOnlyViolationException) {
+            throw (ReadOnlyViolationException) t;
+        }
+
+        FastLogger.logStatic(LogLevel.SEVERE, "An internal error occurred.\n%s", t);
+        return new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+    }
+
+    private static boolean isLeaderOnly(Throwable t) {
+        if (!(t instanceof QueryException)) return false;
+
+        QueryErrorCode code = ((QueryException) t).code;
+        return code == QueryErrorCode.TIMED_OUT || code == QueryErrorCode.OVERLOADED;
+    }
+
+    // An interrupted write takes the whole transaction with it, not just its savepoint.
+    private static boolean isTimeout(Throwable t) {
+        return t instanceof QueryException && ((QueryException) t).code == QueryErrorCode.TIMED_OUT;
+    }
+
+    // The progress handler only ever interrupts once the deadline has passed.
+    private static void checkForTimeout(Throwable t, Profiler profiler, long timeout_ms) throws QueryException {
+        if (t instanceof SQLException && ((SQLException) t).getErrorCode() == SQLITE_INTERRUPT) {
+            throw new QueryException(QueryErrorCode.TIMED_OUT, String.format("Query ran past its %dms timeout during %s and was stopped.", timeout_ms, profiler.phase));
+        }
+    }
+
     private static void checkForSpecificError(Throwable t) throws QueryException {
         if (!(t instanceof SQLException)) return;
 
@@ -259,4 +803,195 @@ public class SQLiteDatabase extends Database {
         }
     }
 
+    // Collects writes from many callers and runs them in one transaction, each
+    // under its own savepoint, so that they all share a single commit (fsync).
+    private class GroupCommitter implements Runnable {
+        private final Thread thread;
+        private final BlockingDeque<PendingWrite> queue = new LinkedBlockingDeque<>();
+        private final long windowNanos;
+        private final int maxStatements;
+
+        // Set once the committer has stopped taking writes, see submit().
+        private volatile boolean stopped = false;
+
+        // Only ever touched by the committer thread, reset for each group.
+        private final Profiler groupProfiler = new Profiler();
+
+        private GroupCommitter(long windowNanos, int maxStatements) {
+            this.windowNanos = windowNanos;
+            this.maxStatements = maxStatements;
+            // Commits are native calls that would hold a virtual thread's carrier.
+            this.thread = Thread.ofPlatform()
+                .name("SQLite Group Committer")
+                .daemon(true)
+                .unstarted(this);
+        }
+
+        private QueryResult submit(Profiler profiler, MarshallingContext context, String query, JsonArray parameters) throws UnsupportedOperationException, IllegalArgumentException, QueryException {
+            if (this.stopped) {
+                throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
+            }
+            if (maxQueued > 0 && this.queue.size() >= maxQueued) {
+                throw new QueryException(QueryErrorCode.OVERLOADED, "Too many queries are waiting on the database.");
+            }
+
+            PendingWrite write = new PendingWrite(profiler, context, query, parameters, System.nanoTime(), new CompletableFuture<>());
+            this.queue.add(write);
+
+            // The committer may have stopped between the check above and the add. If we
+            // can still take it back nobody will ever run it, otherwise the final drain
+            // has it and fails it for us.
+            if (this.stopped && this.queue.remove(write)) {
+                throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing.");
+            }
+
+            try {
+                return write.future.get(); // The profiler is ours again once this returns.
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            } catch (InterruptedException e) {
+                throw new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+            }
+        }
+
+        @Override
+        public void run() {
+            List<PendingWrite> group = new ArrayList<>(this.maxStatements);
+
+            while (true) {
+                try {
+                    PendingWrite first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (isClosed) break;
+                        continue;
+                    }
+
+                    group.add(first);
+
+                    long deadline = System.nanoTime() + this.windowNanos;
+                    while (group.size() < this.maxStatements) {
+                        PendingWrite next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        group.add(next);
+                    }
+
+                    this.commit(group);
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    group.clear();
+                }
+            }
+
+            this.stopped = true;
+
+            PendingWrite leftover;
+            while ((leftover = this.queue.poll()) != null) {
+                leftover.future.completeExceptionally(new QueryException(QueryErrorCode.INTERNAL_ERROR, "Database is closing."));
+            }
+        }
+
+        private void commit(List<PendingWrite> group) {
+            long start_ns = System.nanoTime();
+
+            Profiler groupProfiler = this.groupProfiler;
+            groupProfiler.reset();
+            try {
+                acquire(concurrentAccessLock, groupProfiler);
+            } catch (Throwable t) {
+                group.forEach((w) -> w.future.completeExceptionally(t));
+                return;
+            }
+
+            try {
+                Object[] outcomes = new Object[group.size()];
+                int timedOut = -1;
+
+                for (int idx = 0; idx < group.size(); idx++) {
+                    PendingWrite write = group.get(idx);
+                    write.profiler.log(Phase.GROUP_COMMIT_WAIT, (start_ns - write.queued_ns) / 1000000d);
+                    write.profiler.log(Phase.ACCESS_LOCK_ACQUISITION, groupProfiler.took_ms(Phase.ACCESS_LOCK_ACQUISITION));
+
+                    // A savepoint lets us undo just this statement.
+                    Savepoint savepoint = conn.setSavepoint();
+                    try {
+                        outcomes[idx] = execute(connStatements, true, write.profiler, write.context, write.query, write.parameters, null, budgetOf(write.context));
+                        conn.releaseSavepoint(savepoint);
+                    } catch (QueryException | UnsupportedOperationException | IllegalArgumentException e) {
+                        if (isTimeout(e)) {
+                            outcomes[idx] = e;
+                            timedOut = idx;
+                            break;
+                        }
+
+                        conn.rollback(savepoint);
+                        conn.releaseSavepoint(savepoint);
+                        outcomes[idx] = e;
+                    }
+                }
+
+                if (timedOut != -1) {
+                    // Nothing in the group made it in, so everyone else goes again without it.
+                    // They go back to the front of the queue, in order, and count their wait
+                    // from now so that none of it is logged twice.
+                    rollback(conn, groupProfiler);
+                    group.get(timedOut).future.completeExceptionally((Throwable) outcomes[timedOut]);
+
+                    long requeued_ns = System.nanoTime();
+                    for (int idx = group.size() - 1; idx >= 0; idx--) {
+                        if (idx == timedOut) continue;
+
+                        PendingWrite write = group.get(idx);
+                        this.queue.addFirst(new PendingWrite(write.profiler, write.context, write.query, write.parameters, requeued_ns, write.future));
+                    }
+                    return;
+                }
+
+                long schemaVersion = schemaVersionBeforeCommit(conn);
+                groupProfiler.begin(Phase.DATABASE_COMMIT);
+                conn.commit();
+                groupProfiler.end();
+                SQLiteDatabase.this.schemaVersion = schemaVersion;
+                invalidateResults();
+                double commitTime_ms = groupProfiler.took_ms(Phase.DATABASE_COMMIT);
+
+                // Only now is everything durable, so only now can we answer.
+                for (int idx = 0; idx < group.size(); idx++) {
+                    PendingWrite write = group.get(idx);
+                    write.profiler.log(Phase.DATABASE_COMMIT, commitTime_ms);
+
+                    if (outcomes[idx] instanceof QueryResult) {
+                        write.future.complete((QueryResult) outcomes[idx]);
+                    } else {
+                        write.future.completeExceptionally((Throwable) outcomes[idx]);
+                    }
+                }
+            } catch (Throwable t) {
+                // Nothing in the group made it in.
+                rollback(conn, groupProfiler);
+
+                QueryException e;
+                if (t instanceof QueryException) {
+                    e = (QueryException) t;
+                } else {
+                    FastLogger.logStatic(LogLevel.SEVERE, "An internal error occurred whilst group committing.\n%s", t);
+                    e = new QueryException(QueryErrorCode.INTERNAL_ERROR, "Internal error.");
+                }
+
+                group.forEach((w) -> w.future.completeExceptionally(e));
+            } finally {
+                concurrentAccessLock.release();
+            }
+        }
+
+    }
+
+    private static record PendingWrite(Profiler profiler, MarshallingContext context, String query, JsonArray parameters, long queued_ns, CompletableFuture<QueryResult> future) {
+    }
+
+    private static class ReadOnlyViolationException extends RuntimeException {
+        private static final long serialVersionUID = -2287014457373451170L;
+
+    }
+
 }
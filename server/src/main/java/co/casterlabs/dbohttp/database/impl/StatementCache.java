@@ -0,0 +1,100 @@
+package co.casterlabs.dbohttp.database.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+import xyz.e3ndr.fastloggingframework.logging.LogLevel;
+
+// Not thread safe, this is only ever touched by whoever holds the connection.
+class StatementCache {
+    final Connection conn;
+
+    // When the statement running on this connection must stop, 0 for never. See
+    // SQLiteDatabase's progress handler.
+    volatile long deadline_ns = 0;
+
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, .75f, true /* LRU */) {
+        private static final long serialVersionUID = 4795462389386283617L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (this.size() <= maxSize) return false;
+
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    StatementCache(@NonNull Connection conn, int maxSize, @NonNull LongAdder hits, @NonNull LongAdder misses) {
+        this.conn = conn;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    CachedStatement acquire(@NonNull String sql) throws SQLException {
+        CachedStatement cached = this.statements.remove(sql); // Checked out until it's released.
+
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+
+        this.misses.increment();
+
+        PreparedStatement prepared = this.conn.prepareStatement(sql);
+        return new CachedStatement(sql, prepared, prepared.getParameterMetaData().getParameterCount());
+    }
+
+    void release(@NonNull CachedStatement cached, boolean reusable) {
+        if (!reusable || this.maxSize <= 0) {
+            cached.close();
+            return;
+        }
+
+        try {
+            cached.statement.clearParameters();
+        } catch (SQLException e) {
+            cached.close();
+            return;
+        }
+
+        CachedStatement displaced = this.statements.put(cached.sql, cached);
+        if (displaced != null) {
+            displaced.close();
+        }
+    }
+
+    int size() {
+        return this.statements.size();
+    }
+
+    void clear() {
+        this.statements.values().forEach(CachedStatement::close);
+        this.statements.clear();
+    }
+
+    static record CachedStatement(String sql, PreparedStatement statement, int parameterCount) {
+
+        void close() {
+            try {
+                this.statement.close();
+            } catch (SQLException e) {
+                // Not possible... I think?
+                FastLogger.logStatic(LogLevel.SEVERE, "An error occurred whilst freeing statement, the database may be busted!\n%s", e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package co.casterlabs.dbohttp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.JWTVerifier;
+
+import lombok.NonNull;
+
+// Remembers tokens that have already passed verification so that clients who
+// reuse a token don't pay for decoding and the HMAC check on every request.
+// Tokens are keyed by their SHA-256 digest and dropped once they expire. A new
+// instance is made whenever the secret changes, which throws all of this away.
+public class CachingJWTVerifier implements JWTVerifier {
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM is required to have it.
+        }
+    });
+
+    private final Map<String, CachedToken> cache = new ConcurrentHashMap<>();
+    private final JWTVerifier delegate;
+    private final int maxSize;
+
+    public CachingJWTVerifier(@NonNull JWTVerifier delegate, int maxSize) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public DecodedJWT verify(String token) throws JWTVerificationException {
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+
+        CachedToken cached = this.cache.get(key);
+        if (cached != null) {
+            if (now < cached.expiresAt_ms) {
+                return cached.jwt;
+            }
+            this.cache.remove(key, cached);
+        }
+
+        DecodedJWT jwt = this.delegate.verify(token); // Throws if invalid or expired.
+
+        Date expiresAt = jwt.getExpiresAt();
+        long expiresAt_ms = expiresAt == null ? Long.MAX_VALUE : expiresAt.getTime();
+
+        if (this.cache.size() >= this.maxSize) {
+            this.evict(now);
+        }
+        if (this.cache.size() < this.maxSize) {
+            this.cache.put(key, new CachedToken(jwt, expiresAt_ms));
+        }
+
+        return jwt;
+    }
+
+    @Override
+    public DecodedJWT verify(DecodedJWT jwt) throws JWTVerificationException {
+        return this.verify(jwt.getToken());
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    // Drops whatever has expired, then arbitrary entries until there's a bit of
+    // headroom so that we aren't doing this on every miss.
+    private void evict(long now) {
+        this.cache.values().removeIf((cached) -> now >= cached.expiresAt_ms);
+
+        int target = this.maxSize - Math.max(1, this.maxSize / 10);
+        Iterator<CachedToken> it = this.cache.values().iterator();
+        while (this.cache.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        byte[] hash = SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    private static record CachedToken(DecodedJWT jwt, long expiresAt_ms) {
+    }
+
+}
@@ -0,0 +1,228 @@
+package co.casterlabs.dbohttp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonBoolean;
+import co.casterlabs.rakurai.json.element.JsonElement;
+import co.casterlabs.rakurai.json.element.JsonNull;
+import co.casterlabs.rakurai.json.element.JsonNumber;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import co.casterlabs.rakurai.json.element.JsonString;
+
+// A minimal RFC 8949 decoder that produces the same tree a JSON body would,
+// so that request bodies can go through the usual Rson deserialization. Byte
+// strings become {"$b64": "..."} which MarshallingContext binds as a BLOB. Tags
+// are skipped over and their content read as-is.
+public class CborReader {
+    private static final int BREAK = 0xFF;
+
+    private final byte[] data;
+    private int pos = 0;
+
+    private CborReader(byte[] data) {
+        this.data = data;
+    }
+
+    public static JsonElement read(byte[] data) throws IllegalArgumentException {
+        CborReader reader = new CborReader(data);
+        JsonElement e = reader.readItem(0);
+        if (reader.pos != data.length) {
+            throw new IllegalArgumentException("Trailing data after CBOR item.");
+        }
+        return e;
+    }
+
+    private JsonElement readItem(int depth) {
+        if (depth > 64) {
+            throw new IllegalArgumentException("CBOR nesting is too deep.");
+        }
+
+        int initial = this.readByte();
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+
+        switch (major) {
+            case 0:
+                return new JsonNumber(this.readUnsigned(info));
+
+            case 1:
+                return new JsonNumber(-1 - this.readUnsigned(info));
+
+            case 2:
+                return new JsonObject().put(MarshallingContext.TAGGED_BLOB_KEY, Base64.getEncoder().encodeToString(this.readString(2, info)));
+
+            case 3:
+                return new JsonString(new String(this.readString(3, info), StandardCharsets.UTF_8));
+
+            case 4: {
+                JsonArray arr = new JsonArray();
+                if (info == 31) {
+                    while (this.peekByte() != BREAK) {
+                        arr.add(this.readItem(depth + 1));
+                    }
+                    this.pos++;
+                } else {
+                    long size = this.readLength(info);
+                    for (long i = 0; i < size; i++) {
+                        arr.add(this.readItem(depth + 1));
+                    }
+                }
+                return arr;
+            }
+
+            case 5: {
+                JsonObject obj = new JsonObject();
+                if (info == 31) {
+                    while (this.peekByte() != BREAK) {
+                        obj.put(this.readKey(depth), this.readItem(depth + 1));
+                    }
+                    this.pos++;
+                } else {
+                    long size = this.readLength(info);
+                    for (long i = 0; i < size; i++) {
+                        obj.put(this.readKey(depth), this.readItem(depth + 1));
+                    }
+                }
+                return obj;
+            }
+
+            case 6:
+                this.readUnsigned(info); // The tag number, we don't care.
+                return this.readItem(depth + 1);
+
+            default:
+                return this.readSimple(info);
+        }
+    }
+
+    private String readKey(int depth) {
+        JsonElement key = this.readItem(depth + 1);
+        if (!key.isJsonString()) {
+            throw new IllegalArgumentException("CBOR map keys must be strings.");
+        }
+        return key.getAsString();
+    }
+
+    private JsonElement readSimple(int info) {
+        switch (info) {
+            case 20:
+                return new JsonBoolean(false);
+            case 21:
+                return new JsonBoolean(true);
+            case 22:
+            case 23: // undefined
+                return JsonNull.INSTANCE;
+            case 25:
+                return new JsonNumber(halfToFloat((int) this.readRaw(2)));
+            case 26:
+                return new JsonNumber(Float.intBitsToFloat((int) this.readRaw(4)));
+            case 27:
+                return new JsonNumber(Double.longBitsToDouble(this.readRaw(8)));
+            default:
+                throw new IllegalArgumentException("Unsupported CBOR simple value: " + info);
+        }
+    }
+
+    private byte[] readString(int major, int info) {
+        if (info != 31) {
+            long size = this.readLength(info);
+            if (size > this.data.length - this.pos) {
+                throw new IllegalArgumentException("CBOR string runs past the end of the data.");
+            }
+
+            byte[] bytes = new byte[(int) size];
+            System.arraycopy(this.data, this.pos, bytes, 0, bytes.length);
+            this.pos += bytes.length;
+            return bytes;
+        }
+
+        // Indefinite length, a series of definite chunks of the same major type.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (this.peekByte() != BREAK) {
+            int chunk = this.readByte();
+            if ((chunk >>> 5) != major || (chunk & 0x1F) == 31) {
+                throw new IllegalArgumentException("Invalid chunk in indefinite CBOR string.");
+            }
+            byte[] bytes = this.readString(major, chunk & 0x1F);
+            out.write(bytes, 0, bytes.length);
+        }
+        this.pos++;
+        return out.toByteArray();
+    }
+
+    private long readLength(int info) {
+        long value = this.readUnsigned(info);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("CBOR length is too large.");
+        }
+        return value;
+    }
+
+    private long readUnsigned(int info) {
+        if (info < 24) return info;
+
+        switch (info) {
+            case 24:
+                return this.readRaw(1);
+            case 25:
+                return this.readRaw(2);
+            case 26:
+                return this.readRaw(4);
+            case 27: {
+                long value = this.readRaw(8);
+                if (value < 0) {
+                    throw new IllegalArgumentException("CBOR integer does not fit in 64 bits.");
+                }
+                return value;
+            }
+            default:
+                throw new IllegalArgumentException("Invalid CBOR additional info: " + info);
+        }
+    }
+
+    private long readRaw(int bytes) {
+        if (bytes > this.data.length - this.pos) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data.");
+        }
+
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (this.data[this.pos++] & 0xFF);
+        }
+        return value;
+    }
+
+    private int readByte() {
+        if (this.pos >= this.data.length) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data.");
+        }
+        return this.data[this.pos++] & 0xFF;
+    }
+
+    private int peekByte() {
+        if (this.pos >= this.data.length) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data.");
+        }
+        return this.data[this.pos] & 0xFF;
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        float value;
+
+        if (exponent == 0) {
+            value = mantissa * 0x1p-24f;
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        }
+
+        return (half & 0x8000) == 0 ? value : -value;
+    }
+
+}
@@ -0,0 +1,190 @@
+package co.casterlabs.dbohttp.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.util.Arrays;
+import java.util.Map;
+
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonElement;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import lombok.SneakyThrows;
+
+// A minimal RFC 8949 encoder. Only definite lengths are written and floats are
+// always 64-bit, which keeps things simple for clients.
+public class CborWriter {
+    private static final int MAJOR_UNSIGNED = 0 << 5;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_BYTES = 2 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int MAJOR_ARRAY = 4 << 5;
+    private static final int MAJOR_MAP = 5 << 5;
+    private static final int MAJOR_SIMPLE = 7 << 5;
+
+    private byte[] buffer;
+    private int len = 0;
+
+    public CborWriter() {
+        this(1024);
+    }
+
+    public CborWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public CborWriter writeNull() {
+        this.ensure(1);
+        this.buffer[this.len++] = (byte) (MAJOR_SIMPLE | 22);
+        return this;
+    }
+
+    public CborWriter writeBoolean(boolean value) {
+        this.ensure(1);
+        this.buffer[this.len++] = (byte) (MAJOR_SIMPLE | (value ? 21 : 20));
+        return this;
+    }
+
+    public CborWriter writeLong(long value) {
+        if (value < 0) {
+            this.writeHeader(MAJOR_NEGATIVE, -1 - value);
+        } else {
+            this.writeHeader(MAJOR_UNSIGNED, value);
+        }
+        return this;
+    }
+
+    public CborWriter writeDouble(double value) {
+        this.ensure(9);
+        this.buffer[this.len++] = (byte) (MAJOR_SIMPLE | 27);
+        this.writeRaw(Double.doubleToRawLongBits(value), 8);
+        return this;
+    }
+
+    public CborWriter writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeHeader(MAJOR_TEXT, bytes.length);
+        this.writeRaw(bytes);
+        return this;
+    }
+
+    public CborWriter writeBytes(byte[] value) {
+        this.writeHeader(MAJOR_BYTES, value.length);
+        this.writeRaw(value);
+        return this;
+    }
+
+    public CborWriter writeArrayHeader(int size) {
+        this.writeHeader(MAJOR_ARRAY, size);
+        return this;
+    }
+
+    public CborWriter writeMapHeader(int size) {
+        this.writeHeader(MAJOR_MAP, size);
+        return this;
+    }
+
+    // Handles the values found in a QueryResult row as well as anything Rson
+    // would hand us.
+    @SneakyThrows
+    public CborWriter writeValue(Object value) {
+        if (value == null) {
+            return this.writeNull();
+        } else if (value instanceof String) {
+            return this.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return this.writeLong(((Number) value).longValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return this.writeLong(((BigInteger) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            return this.writeString(((BigDecimal) value).toPlainString()); // Don't lose precision.
+        } else if (value instanceof Number) {
+            return this.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return this.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            return this.writeBytes((byte[]) value);
+        } else if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            byte[] bytes = blob.getBytes(1, (int) blob.length());
+            blob.free();
+            return this.writeBytes(bytes);
+        } else if (value instanceof JsonElement) {
+            return this.writeJson((JsonElement) value);
+        } else {
+            return this.writeString(value.toString());
+        }
+    }
+
+    public CborWriter writeJson(JsonElement e) {
+        if (e == null || e.isJsonNull()) {
+            return this.writeNull();
+        } else if (e.isJsonBoolean()) {
+            return this.writeBoolean(e.getAsBoolean());
+        } else if (e.isJsonNumber()) {
+            return this.writeValue(e.getAsNumber());
+        } else if (e.isJsonString()) {
+            return this.writeString(e.getAsString());
+        } else if (e.isJsonArray()) {
+            JsonArray arr = e.getAsArray();
+            this.writeArrayHeader(arr.size());
+            for (JsonElement item : arr) {
+                this.writeJson(item);
+            }
+            return this;
+        } else {
+            JsonObject obj = e.getAsObject();
+            this.writeMapHeader(obj.size());
+            for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+                this.writeString(entry.getKey());
+                this.writeJson(entry.getValue());
+            }
+            return this;
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.len);
+    }
+
+    private void writeHeader(int major, long value) {
+        this.ensure(9);
+
+        if (value < 24) {
+            this.buffer[this.len++] = (byte) (major | value);
+        } else if (value <= 0xFFL) {
+            this.buffer[this.len++] = (byte) (major | 24);
+            this.writeRaw(value, 1);
+        } else if (value <= 0xFFFFL) {
+            this.buffer[this.len++] = (byte) (major | 25);
+            this.writeRaw(value, 2);
+        } else if (value <= 0xFFFFFFFFL) {
+            this.buffer[this.len++] = (byte) (major | 26);
+            this.writeRaw(value, 4);
+        } else {
+            // Also covers the top half of the unsigned range (negative as a long).
+            this.buffer[this.len++] = (byte) (major | 27);
+            this.writeRaw(value, 8);
+        }
+    }
+
+    private void writeRaw(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            this.buffer[this.len++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeRaw(byte[] bytes) {
+        this.ensure(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.len, bytes.length);
+        this.len += bytes.length;
+    }
+
+    private void ensure(int needed) {
+        if (this.len + needed > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.len + needed));
+        }
+    }
+
+}
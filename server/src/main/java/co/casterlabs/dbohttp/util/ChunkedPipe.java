@@ -0,0 +1,189 @@
+package co.casterlabs.dbohttp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A bounded, single-producer/single-consumer pipe. Unlike PipedInputStream it
+// doesn't care which threads are on either end and never sleeps waiting for a
+// notification, the writer simply blocks once `maxChunks` are in flight (but
+// never past the write deadline).
+public class ChunkedPipe {
+    private static final byte[] EOF = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final int chunkSize;
+
+    private volatile boolean readerClosed = false;
+    private volatile boolean writerFailed = false;
+    private volatile long bytesWritten = 0;
+
+    // System.nanoTime(), 0 for none. Only used by the writer.
+    private long writeDeadline_ns = 0;
+
+    public final OutputStream out;
+    public final InputStream in;
+
+    public ChunkedPipe(int chunkSize, int maxChunks) {
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(maxChunks);
+        this.out = new PipeOutputStream();
+        this.in = new PipeInputStream();
+    }
+
+    // Only updated by the writer.
+    public long bytesWritten() {
+        return this.bytesWritten;
+    }
+
+    // A write that's still blocked at the deadline fails with an
+    // InterruptedIOException, after which the pipe is broken for good.
+    public void setWriteDeadline(long deadline_ns) {
+        this.writeDeadline_ns = deadline_ns;
+    }
+
+    private void offer(byte[] chunk) throws IOException {
+        if (this.readerClosed) {
+            throw new IOException("Pipe closed by the reader.");
+        }
+        if (this.writerFailed) {
+            throw new InterruptedIOException("Timed out writing to pipe.");
+        }
+
+        this.bytesWritten += chunk.length;
+
+        try {
+            while (!this.chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (this.readerClosed) {
+                    throw new IOException("Pipe closed by the reader.");
+                }
+                if (this.writeDeadline_ns != 0 && System.nanoTime() - this.writeDeadline_ns > 0) {
+                    this.writerFailed = true; // The reader gets an error once it catches up.
+                    throw new InterruptedIOException("Timed out writing to pipe.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst writing to pipe.", e);
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        private byte[] buffer = new byte[chunkSize];
+        private int len = 0;
+        private boolean closed = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.len == this.buffer.length) {
+                this.flush();
+            }
+            this.buffer[this.len++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.len == this.buffer.length) {
+                    this.flush();
+                }
+
+                int toCopy = Math.min(len, this.buffer.length - this.len);
+                System.arraycopy(b, off, this.buffer, this.len, toCopy);
+                this.len += toCopy;
+                off += toCopy;
+                len -= toCopy;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.closed) throw new IOException("Pipe closed.");
+            if (this.len == 0) return;
+
+            byte[] chunk = this.buffer;
+            if (this.len < chunk.length) {
+                chunk = new byte[this.len];
+                System.arraycopy(this.buffer, 0, chunk, 0, this.len);
+            } else {
+                this.buffer = new byte[chunkSize]; // The full buffer is handed off as-is.
+            }
+
+            this.len = 0;
+            offer(chunk);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+
+            try {
+                this.flush();
+            } finally {
+                this.closed = true;
+                if (!readerClosed && !writerFailed) {
+                    offer(EOF);
+                }
+            }
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        private byte[] current = null;
+        private int pos = 0;
+
+        // Returns false once the writer is done.
+        private boolean fill() throws IOException {
+            if (this.current == EOF) return false;
+            if (this.current != null && this.pos < this.current.length) return true;
+
+            try {
+                while ((this.current = chunks.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    if (writerFailed) {
+                        throw new IOException("The writer gave up, the rest of the stream is missing.");
+                    }
+                }
+                this.pos = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted whilst reading from pipe.", e);
+            }
+
+            return this.current != EOF;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.fill()) return -1;
+            return this.current[this.pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!this.fill()) return -1;
+
+            int toCopy = Math.min(len, this.current.length - this.pos);
+            System.arraycopy(this.current, this.pos, b, off, toCopy);
+            this.pos += toCopy;
+            return toCopy;
+        }
+
+        @Override
+        public int available() {
+            if (this.current == null || this.current == EOF) return 0;
+            return this.current.length - this.pos;
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            chunks.clear(); // Unblock the writer.
+        }
+    }
+
+}
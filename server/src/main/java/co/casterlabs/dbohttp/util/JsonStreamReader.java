@@ -0,0 +1,408 @@
+package co.casterlabs.dbohttp.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+// A minimal RFC 8259 pull parser for walking large documents as they arrive,
+// without holding the text or a tree of it in memory. The caller drives it
+// with the structure it expects, anything else is an IllegalArgumentException.
+public class JsonStreamReader {
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int DANGLING_NAME = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private final StringBuilder scratch = new StringBuilder();
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    // The separators before it have already been consumed, as has the opening
+    // quote of a string/name.
+    private Token peeked;
+
+    public JsonStreamReader(Reader reader) {
+        this.reader = reader;
+        this.stack[0] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException {
+        if (this.peeked != null) {
+            return this.peeked;
+        }
+
+        int c;
+        switch (this.stack[this.depth - 1]) {
+            case EMPTY_DOCUMENT:
+                this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+                return this.peeked = this.valueToken(this.nextNonWhitespace());
+
+            case NONEMPTY_DOCUMENT:
+                if (this.nextNonWhitespace() != -1) {
+                    throw new IllegalArgumentException("Trailing data after JSON document.");
+                }
+                return this.peeked = Token.END_DOCUMENT;
+
+            case EMPTY_ARRAY:
+                this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+                c = this.nextNonWhitespace();
+                if (c == ']') {
+                    return this.peeked = Token.END_ARRAY;
+                }
+                return this.peeked = this.valueToken(c);
+
+            case NONEMPTY_ARRAY:
+                c = this.nextNonWhitespace();
+                if (c == ']') {
+                    return this.peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw unexpected(c, "',' or ']'");
+                }
+                return this.peeked = this.valueToken(this.nextNonWhitespace());
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = this.nextNonWhitespace();
+                if (c == '}') {
+                    return this.peeked = Token.END_OBJECT;
+                }
+                if (this.stack[this.depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw unexpected(c, "',' or '}'");
+                    }
+                    c = this.nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw unexpected(c, "a name");
+                }
+                this.stack[this.depth - 1] = DANGLING_NAME;
+                return this.peeked = Token.NAME;
+
+            case DANGLING_NAME:
+                c = this.nextNonWhitespace();
+                if (c != ':') {
+                    throw unexpected(c, "':'");
+                }
+                this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+                return this.peeked = this.valueToken(this.nextNonWhitespace());
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = this.peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+    }
+
+    public void beginArray() throws IOException {
+        this.consume(Token.BEGIN_ARRAY);
+        this.push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        this.consume(Token.END_ARRAY);
+        this.depth--;
+    }
+
+    public void beginObject() throws IOException {
+        this.consume(Token.BEGIN_OBJECT);
+        this.push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        this.consume(Token.END_OBJECT);
+        this.depth--;
+    }
+
+    public String nextName() throws IOException {
+        this.consume(Token.NAME);
+        return this.readString();
+    }
+
+    public String nextString() throws IOException {
+        this.consume(Token.STRING);
+        return this.readString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        this.consume(Token.BOOLEAN);
+        if (this.nextChar() == 't') {
+            this.expectLiteral("rue");
+            return true;
+        } else {
+            this.expectLiteral("alse");
+            return false;
+        }
+    }
+
+    public void nextNull() throws IOException {
+        this.consume(Token.NULL);
+        this.expectLiteral("null");
+    }
+
+    // Integers that fit come back as a Long, everything else as a Double.
+    public Number nextNumber() throws IOException {
+        this.consume(Token.NUMBER);
+
+        this.scratch.setLength(0);
+        boolean isInteger = true;
+        while (true) {
+            if (this.pos == this.limit && !this.fill()) break;
+
+            char c = this.buffer[this.pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                // NOOP
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                isInteger = false;
+            } else {
+                break;
+            }
+
+            this.scratch.append(c);
+            this.pos++;
+        }
+
+        String str = this.scratch.toString();
+        try {
+            if (isInteger) {
+                try {
+                    return Long.parseLong(str);
+                } catch (NumberFormatException ignored) {
+                    // Too big, fall through.
+                }
+            }
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed JSON number: " + str);
+        }
+    }
+
+    public void skipValue() throws IOException {
+        switch (this.peek()) {
+            case BEGIN_ARRAY:
+                this.beginArray();
+                while (this.hasNext()) {
+                    this.skipValue();
+                }
+                this.endArray();
+                return;
+
+            case BEGIN_OBJECT:
+                this.beginObject();
+                while (this.hasNext()) {
+                    this.nextName();
+                    this.skipValue();
+                }
+                this.endObject();
+                return;
+
+            case STRING:
+                this.nextString();
+                return;
+
+            case NUMBER:
+                this.nextNumber();
+                return;
+
+            case BOOLEAN:
+                this.nextBoolean();
+                return;
+
+            case NULL:
+                this.nextNull();
+                return;
+
+            default:
+                throw new IllegalArgumentException("Expected a value but got " + this.peeked);
+        }
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token token = this.peek();
+        if (token != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " but got " + token);
+        }
+        this.peeked = null;
+    }
+
+    private void push(int scope) {
+        if (this.depth == this.stack.length) {
+            if (this.depth > 256) {
+                throw new IllegalArgumentException("JSON nesting is too deep.");
+            }
+            this.stack = Arrays.copyOf(this.stack, this.depth * 2);
+        }
+        this.stack[this.depth++] = scope;
+    }
+
+    // Brackets and quotes stay consumed, anything else is pushed back for the
+    // literal/number to be read whole.
+    private Token valueToken(int c) {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                this.pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                this.pos--;
+                return Token.NULL;
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                this.pos--;
+                return Token.NUMBER;
+            default:
+                throw unexpected(c, "a value");
+        }
+    }
+
+    private String readString() throws IOException {
+        this.scratch.setLength(0);
+
+        while (true) {
+            if (this.pos == this.limit && !this.fill()) {
+                throw new IllegalArgumentException("Unterminated JSON string.");
+            }
+
+            // Copy runs of plain characters in one go.
+            int start = this.pos;
+            while (this.pos < this.limit) {
+                char c = this.buffer[this.pos];
+                if (c == '"' || c == '\\') break;
+                this.pos++;
+            }
+            this.scratch.append(this.buffer, start, this.pos - start);
+
+            if (this.pos == this.limit) continue;
+
+            char c = this.buffer[this.pos++];
+            if (c == '"') {
+                return this.scratch.toString();
+            }
+
+            char escaped = this.nextChar();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    this.scratch.append(escaped);
+                    break;
+                case 'b':
+                    this.scratch.append('\b');
+                    break;
+                case 'f':
+                    this.scratch.append('\f');
+                    break;
+                case 'n':
+                    this.scratch.append('\n');
+                    break;
+                case 'r':
+                    this.scratch.append('\r');
+                    break;
+                case 't':
+                    this.scratch.append('\t');
+                    break;
+                case 'u': {
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(this.nextChar(), 16);
+                        if (digit == -1) {
+                            throw new IllegalArgumentException("Malformed JSON unicode escape.");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    this.scratch.append((char) value);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Malformed JSON escape: \\" + escaped);
+            }
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (this.nextChar() != literal.charAt(i)) {
+                throw new IllegalArgumentException("Malformed JSON literal, expected " + literal);
+            }
+        }
+    }
+
+    private char nextChar() throws IOException {
+        if (this.pos == this.limit && !this.fill()) {
+            throw new IllegalArgumentException("Unexpected end of JSON.");
+        }
+        return this.buffer[this.pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (this.pos == this.limit && !this.fill()) {
+                return -1;
+            }
+
+            char c = this.buffer[this.pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = this.reader.read(this.buffer, 0, this.buffer.length);
+        if (read <= 0) {
+            // read() only returns 0 for an empty buffer, which ours never is.
+            this.pos = this.limit = 0;
+            return false;
+        }
+        this.pos = 0;
+        this.limit = read;
+        return true;
+    }
+
+    private static IllegalArgumentException unexpected(int c, String expected) {
+        if (c == -1) {
+            return new IllegalArgumentException("Unexpected end of JSON, expected " + expected);
+        }
+        return new IllegalArgumentException("Unexpected '" + (char) c + "' in JSON, expected " + expected);
+    }
+
+    public static enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT,
+    }
+
+}
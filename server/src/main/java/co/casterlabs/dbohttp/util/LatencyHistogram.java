@@ -0,0 +1,182 @@
+package co.casterlabs.dbohttp.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.casterlabs.rakurai.json.element.JsonObject;
+
+// A fixed-size, lock-free latency histogram over a sliding window. Samples go
+// into log-linear buckets (8 per power of two, so within ~12.5%) of whichever
+// one-second slot is current, slots are lazily recycled as time moves on. The
+// lifetime count and sum are kept separately for anything that wants totals.
+public class LatencyHistogram {
+    public static final int WINDOW_S = 10;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; // ~12.7 days in microseconds, anything above is clamped.
+    private static final int BUCKETS = SUB_BUCKETS * 2 + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final Slot[] slots = new Slot[WINDOW_S + 1]; // +1 so the slot being recycled is never one we read.
+
+    private final LongAdder lifetimeCount = new LongAdder();
+    private final DoubleAdder lifetimeSum_ms = new DoubleAdder();
+
+    private final long created_ns = System.nanoTime();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < this.slots.length; i++) {
+            this.slots[i] = new Slot();
+        }
+    }
+
+    public void record(double took_ms) {
+        long took_us = Math.max(0, (long) (took_ms * 1000));
+        long second = currentSecond();
+
+        Slot slot = this.slots[(int) (second % this.slots.length)];
+        slot.rotate(second);
+        slot.counts.incrementAndGet(bucketOf(took_us));
+        slot.count.increment();
+        slot.sum_us.add(took_us);
+        slot.max_us.accumulateAndGet(took_us, Math::max);
+
+        this.lifetimeCount.increment();
+        this.lifetimeSum_ms.add(took_ms);
+    }
+
+    public long lifetimeCount() {
+        return this.lifetimeCount.sum();
+    }
+
+    public double lifetimeSum_ms() {
+        return this.lifetimeSum_ms.sum();
+    }
+
+    // Merges every slot inside of the window. Approximate under concurrent
+    // writes, which is fine for reporting.
+    public Snapshot snapshot() {
+        long now_ns = System.nanoTime();
+        long second = TimeUnit.NANOSECONDS.toSeconds(now_ns);
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long sum_us = 0;
+        long max_us = 0;
+
+        for (Slot slot : this.slots) {
+            long age = second - slot.second.get();
+            if (age < 0 || age >= WINDOW_S) continue;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += slot.counts.get(i);
+            }
+            count += slot.count.sum();
+            sum_us += slot.sum_us.sum();
+            max_us = Math.max(max_us, slot.max_us.get());
+        }
+
+        // The current second is only partly over, and a young histogram hasn't been
+        // around for the whole window yet.
+        long intoSecond_ns = now_ns - TimeUnit.SECONDS.toNanos(second);
+        if (intoSecond_ns < 0) intoSecond_ns += TimeUnit.SECONDS.toNanos(1); // nanoTime() may be negative.
+
+        double covered_s = WINDOW_S - 1 + intoSecond_ns / 1e9;
+        covered_s = Math.min(covered_s, (now_ns - this.created_ns) / 1e9);
+
+        return new Snapshot(counts, count, sum_us, max_us, covered_s);
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+
+    private static int bucketOf(long value_us) {
+        if (value_us < SUB_BUCKETS * 2) return (int) value_us;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value_us); // >= SUB_BUCKET_BITS + 1
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+
+        int sub = (int) (value_us >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * 2 + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    // The largest value that lands in the bucket, so percentiles never under-report.
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS * 2) return bucket;
+
+        int exponent = (bucket - SUB_BUCKETS * 2) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (bucket - SUB_BUCKETS * 2) % SUB_BUCKETS;
+        long base = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return base + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static class Slot {
+        private final AtomicLong second = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum_us = new LongAdder();
+        private final AtomicLong max_us = new AtomicLong();
+
+        // Whoever moves the slot forward clears it. A sample racing with the reset
+        // may be dropped, never double counted into a newer second.
+        private void rotate(long now) {
+            long current = this.second.get();
+            if (current == now) return;
+
+            if (this.second.compareAndSet(current, now)) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    this.counts.set(i, 0);
+                }
+                this.count.reset();
+                this.sum_us.reset();
+                this.max_us.set(0);
+            }
+        }
+    }
+
+    // covered_s is how much time the window actually spans.
+    public static record Snapshot(long[] counts, long count, long sum_us, long max_us, double covered_s) {
+
+        public double percentile_ms(double percentile) {
+            if (this.count == 0) return 0;
+
+            long rank = (long) Math.ceil(this.count * percentile);
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), this.max_us) / 1000d;
+                }
+            }
+            return this.max_us / 1000d;
+        }
+
+        public double mean_ms() {
+            return this.count == 0 ? 0 : this.sum_us / (double) this.count / 1000d;
+        }
+
+        public double max_ms() {
+            return this.max_us / 1000d;
+        }
+
+        public double perSecond() {
+            return this.covered_s <= 0 ? 0 : this.count / this.covered_s;
+        }
+
+        public JsonObject toJson() {
+            return new JsonObject()
+                .put("count", this.count)
+                .put("perSecond", this.perSecond())
+                .put("mean", this.mean_ms())
+                .put("p50", this.percentile_ms(.50))
+                .put("p90", this.percentile_ms(.90))
+                .put("p99", this.percentile_ms(.99))
+                .put("max", this.max_ms());
+        }
+
+    }
+
+}
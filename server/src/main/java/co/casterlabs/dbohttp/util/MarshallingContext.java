@@ -1,17 +1,44 @@
 package co.casterlabs.dbohttp.util;
 
 import java.sql.Blob;
-import java.sql.SQLException;
+import java.util.Base64;
 
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.dbohttp.database.ReadConsistency;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.element.JsonArray;
 import co.casterlabs.rakurai.json.element.JsonElement;
+import co.casterlabs.rakurai.json.element.JsonObject;
+import co.casterlabs.rakurai.json.element.JsonString;
+import lombok.SneakyThrows;
 
 @JsonClass(exposeAll = true)
 public class MarshallingContext {
+    public static final String TAGGED_BLOB_KEY = "$b64";
+
     public boolean byteArraysAreSigned = true;
 
+    // How BLOBs are written into results. Parameters always accept both the
+    // array form and {"$b64": "..."}.
+    public BlobEncoding blobEncoding = BlobEncoding.ARRAY;
+
+    // Tightens queryTimeoutMillis for this request, it can never be loosened.
+    public long timeoutMillis = 0;
+
+    // Tighten maxResultRows/maxResultBytes for this request. When truncate is set
+    // an oversized result is cut short (and marked truncated) instead of failing.
+    public long maxRows = 0;
+    public long maxBytes = 0;
+    public boolean truncate = false;
+
+    // Set to false to leave meta.profile out (null) of the response.
+    public boolean profile = true;
+
+    // RQLite only. Overrides rqliteReadConsistency for this request.
+    public @Nullable ReadConsistency readConsistency = null;
+
     public Object jsonToJava(JsonElement e) {
         if (e.isJsonArray()) {
             try {
@@ -60,6 +87,20 @@ public class MarshallingContext {
         }
 
         if (e.isJsonObject()) {
+            JsonObject obj = e.getAsObject();
+            if (obj.size() == 1 && obj.containsKey(TAGGED_BLOB_KEY)) {
+                JsonElement b64 = obj.get(TAGGED_BLOB_KEY);
+                if (!b64.isJsonString()) {
+                    throw new IllegalArgumentException("\"" + TAGGED_BLOB_KEY + "\" must be a base64 string.");
+                }
+
+                try {
+                    return Base64.getDecoder().decode(b64.getAsString());
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("\"" + TAGGED_BLOB_KEY + "\" must be a base64 string.");
+                }
+            }
+
             throw new UnsupportedOperationException("Cannot map JsonObject to SQL.");
         }
 
@@ -70,22 +111,40 @@ public class MarshallingContext {
         throw new UnsupportedOperationException("Unknown type: " + JsonElement.class);
     }
 
-    public JsonElement javaToJson(Object obj) throws SQLException {
+    @SneakyThrows
+    public JsonElement javaToJson(Object obj) {
         if (obj instanceof Blob) {
             Blob blob = (Blob) obj;
             byte[] bytes = blob.getBytes(0, (int) blob.length());
             blob.free();
 
-            return bytesToArray(bytes);
+            return this.bytesToJson(bytes);
         }
 
         if (obj instanceof byte[]) {
-            return bytesToArray((byte[]) obj);
+            return this.bytesToJson((byte[]) obj);
         }
 
         return Rson.DEFAULT.toJson(obj);
     }
 
+    public JsonElement bytesToJson(byte[] bytes) {
+        if (this.blobEncoding == null) {
+            return this.bytesToArray(bytes);
+        }
+
+        switch (this.blobEncoding) {
+            case BASE64:
+                return new JsonString(Base64.getEncoder().encodeToString(bytes));
+
+            case TAGGED:
+                return new JsonObject().put(TAGGED_BLOB_KEY, Base64.getEncoder().encodeToString(bytes));
+
+            default:
+                return this.bytesToArray(bytes);
+        }
+    }
+
     private JsonElement bytesToArray(byte[] bytes) {
         JsonArray arr = new JsonArray();
         for (byte b : bytes) {
@@ -98,4 +157,15 @@ public class MarshallingContext {
         return arr;
     }
 
+    public static enum BlobEncoding {
+        // [1, 2, 3, ...], honouring byteArraysAreSigned.
+        ARRAY,
+
+        // "AQID..."
+        BASE64,
+
+        // {"$b64": "AQID..."}, unambiguous and accepted back as a parameter.
+        TAGGED,
+    }
+
 }
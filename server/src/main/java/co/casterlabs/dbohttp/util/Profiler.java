@@ -1,64 +1,95 @@
 package co.casterlabs.dbohttp.util;
 
-import java.util.LinkedList;
-import java.util.List;
+import org.jetbrains.annotations.Nullable;
 
-import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import lombok.NonNull;
-import lombok.SneakyThrows;
+import lombok.RequiredArgsConstructor;
 
+// Times the phases of a request. Every phase has a fixed slot, so timing one is
+// two nanoTime() calls and an array write, nothing is allocated along the way.
+// Phases don't nest. A phase that runs more than once adds up.
 public class Profiler {
-    public final List<Profile> profiles = new LinkedList<>();
-    public double timeSpent_ms = 0;
+    private final double[] took_ms = new double[Phase.COUNT];
+    private int recorded = 0; // One bit per Phase.
+
+    private long start_ns;
 
-    @SuppressWarnings("unchecked")
-    @SneakyThrows
-    public <T> T start(@NonNull String name, @NonNull ProfileTaskReturning task) {
-        long start_ns = System.nanoTime();
-        Object result = task.run();
-        long end_ns = System.nanoTime();
+    public double timeSpent_ms = 0;
 
-        double took_ms = (end_ns - start_ns) / 1000000d;
-        this.log(name, took_ms);
+    // The phase most recently begun. If it threw before end(), this is the one.
+    public @Nullable Phase phase;
 
-        return (T) result;
+    public void begin(@NonNull Phase phase) {
+        this.phase = phase;
+        this.start_ns = System.nanoTime();
     }
 
-    public void start(@NonNull String name, @NonNull ProfileTask task) {
-        this.start(name, () -> {
-            task.run();
-            return null;
-        });
+    public void end() {
+        this.log(this.phase, (System.nanoTime() - this.start_ns) / 1000000d);
     }
 
-    public void log(@NonNull String name, double took_ms) {
-        this.profiles.add(new Profile(name, took_ms));
+    public void log(@NonNull Phase phase, double took_ms) {
+        this.took_ms[phase.ordinal()] += took_ms;
+        this.recorded |= 1 << phase.ordinal();
         this.timeSpent_ms += took_ms;
     }
 
-    public JsonObject toJson() {
-        JsonObject profile = new JsonObject();
-        for (Profile p : this.profiles) {
-            profile.put(p.name(), p.took_ms());
-        }
-        return profile;
+    public boolean has(@NonNull Phase phase) {
+        return (this.recorded & (1 << phase.ordinal())) != 0;
     }
 
-    public static interface ProfileTask {
-
-        public void run() throws Throwable;
-
+    public double took_ms(@NonNull Phase phase) {
+        return this.took_ms[phase.ordinal()];
     }
 
-    public static interface ProfileTaskReturning {
-
-        public Object run() throws Throwable;
+    public void reset() {
+        for (int i = 0; i < Phase.COUNT; i++) {
+            this.took_ms[i] = 0;
+        }
+        this.recorded = 0;
+        this.timeSpent_ms = 0;
+        this.phase = null;
+    }
 
+    public JsonObject toJson() {
+        JsonObject profile = new JsonObject();
+        for (Phase phase : Phase.VALUES) {
+            if (this.has(phase)) {
+                profile.put(phase.label, this.took_ms[phase.ordinal()]);
+            }
+        }
+        return profile;
     }
 
-    @JsonClass(exposeAll = true)
-    public static record Profile(String name, double took_ms) {
+    // Roughly in the order a request goes through them.
+    @RequiredArgsConstructor
+    public static enum Phase {
+        RESULT_CACHE_LOOKUP("Result Cache Lookup"),
+        COALESCED_QUERY_WAIT("Coalesced Query Wait"),
+        GROUP_COMMIT_WAIT("Group Commit Wait"),
+        ACCESS_LOCK_ACQUISITION("Access Lock Acquisition"),
+        STATEMENT_PREPARATION("Statement Preparation"),
+        STATEMENT_EXECUTION("Statement Execution"),
+        RESULT_GATHERING("Result Gathering"),
+        RESULT_MARSHALLING("Result Marshalling"),
+        STATEMENT_CLEANUP("Statement Cleanup"),
+        RESULT_CACHE_FILL("Result Cache Fill"),
+        DATABASE_COMMIT("Database Commit"),
+        DATABASE_ROLLBACK("Database Rollback"),
+        ;
+
+        // values() copies every time.
+        public static final Phase[] VALUES = values();
+        public static final int COUNT = VALUES.length;
+
+        public final String label;
+
+        @Override
+        public String toString() {
+            return this.label;
+        }
+
     }
 
 }